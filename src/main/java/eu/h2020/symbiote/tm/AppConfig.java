@@ -1,20 +1,28 @@
 package eu.h2020.symbiote.tm;
 
+import org.springframework.amqp.core.AcknowledgeMode;
 import org.springframework.amqp.core.AmqpTemplate;
+import org.springframework.amqp.core.AnonymousQueue;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
 import org.springframework.amqp.rabbit.connection.ConnectionFactory;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.amqp.rabbit.listener.SimpleMessageListenerContainer;
 import org.springframework.amqp.support.converter.Jackson2JsonMessageConverter;
 import org.springframework.amqp.support.converter.MessageConverter;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
 import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.data.mongodb.config.AbstractMongoConfiguration;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
 import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.web.client.RestTemplate;
 
@@ -27,6 +35,7 @@ import org.springframework.web.client.RestTemplate;
 import com.mongodb.Mongo;
 import com.mongodb.MongoClient;
 
+import eu.h2020.symbiote.tm.interfaces.rest.PooledHttpClient;
 import eu.h2020.symbiote.util.RabbitConstants;
 
 /**
@@ -50,18 +59,48 @@ class AppConfig extends AbstractMongoConfiguration {
 	@Bean
 	public ThreadPoolTaskScheduler threadPoolTaskScheduler() {
 		ThreadPoolTaskScheduler threadPoolTaskScheduler = new ThreadPoolTaskScheduler();
-		threadPoolTaskScheduler.setPoolSize(3);
+		// the three trust cycles may run at once, the remaining threads keep the resource trust fast lane and the flush tasks responsive
+		threadPoolTaskScheduler.setPoolSize(6);
 		return threadPoolTaskScheduler;
 	}
 
+	@Bean
+	public ThreadPoolTaskExecutor trustUpdateExecutor(@Value("${symbIoTe.trust.executor.pool_size:8}") int poolSize,
+			@Value("${symbIoTe.trust.resource_trust.max_concurrency:16}") int maxConcurrency) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(poolSize);
+		executor.setMaxPoolSize(poolSize);
+		executor.setQueueCapacity(maxConcurrency);
+		executor.setThreadNamePrefix("trust-update-");
+		return executor;
+	}
+
+	@Bean
+	public ThreadPoolTaskExecutor reputationSourceExecutor(@Value("${symbIoTe.trust.platform_reputation.pool_size:6}") int poolSize,
+			@Value("${symbIoTe.trust.platform_reputation.queue_capacity:12}") int queueCapacity) {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(poolSize);
+		executor.setMaxPoolSize(poolSize);
+		// rejected source calls count as missing score instead of waiting behind calls still running after their deadline
+		executor.setQueueCapacity(queueCapacity);
+		executor.setThreadNamePrefix("reputation-source-");
+		return executor;
+	}
+
 	@Bean
 	public MessageConverter jsonMessageConverter() {
 		return new Jackson2JsonMessageConverter();
 	}
 
 	@Bean
-	public RestTemplate restTemplate(RestTemplateBuilder restTemplateBuilder) {
-		return restTemplateBuilder.setConnectTimeout(1 * 1000).setReadTimeout(10 * 1000).build();
+	public RestTemplate restTemplate(RestTemplateBuilder restTemplateBuilder, PooledHttpClient pooledHttpClient,
+			@Value("${symbIoTe.trust.http.connect_timeout:1000}") int connectTimeout, @Value("${symbIoTe.trust.http.read_timeout:10000}") int readTimeout,
+			@Value("${symbIoTe.trust.http.pool_timeout:1000}") int poolTimeout) {
+		HttpComponentsClientHttpRequestFactory requestFactory = new HttpComponentsClientHttpRequestFactory(pooledHttpClient.getHttpClient());
+		requestFactory.setConnectTimeout(connectTimeout);
+		requestFactory.setReadTimeout(readTimeout);
+		requestFactory.setConnectionRequestTimeout(poolTimeout);
+		return restTemplateBuilder.requestFactory(requestFactory).build();
 	}
 
 	@Bean
@@ -71,6 +110,50 @@ class AppConfig extends AbstractMongoConfiguration {
 		return rabbitTemplate;
 	}
 
+	@Bean
+	public SimpleRabbitListenerContainerFactory rabbitListenerContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+			ConnectionFactory connectionFactory, @Value("${symbIoTe.trust.listener.concurrency:1}") int concurrency) {
+		SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+		configurer.configure(factory, connectionFactory);
+		// replaces the default factory, messages of a queue are consumed by concurrency listener threads
+		factory.setConcurrentConsumers(concurrency);
+		factory.setMaxConcurrentConsumers(concurrency);
+		return factory;
+	}
+
+	@Bean
+	public SimpleRabbitListenerContainerFactory slaListenerContainerFactory(SimpleRabbitListenerContainerFactoryConfigurer configurer,
+			ConnectionFactory connectionFactory, @Value("${symbIoTe.trust.sla.batch.prefetch:250}") int prefetch,
+			@Value("${symbIoTe.trust.sla.listener.concurrency:1}") int concurrency) {
+		SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+		configurer.configure(factory, connectionFactory);
+		// SLA violations are acknowledged per stored batch
+		factory.setAcknowledgeMode(AcknowledgeMode.MANUAL);
+		factory.setPrefetchCount(prefetch);
+		factory.setConcurrentConsumers(concurrency);
+		factory.setMaxConcurrentConsumers(concurrency);
+		return factory;
+	}
+
+	@Bean
+	public Queue federationHistoryReplyQueue() {
+		return new AnonymousQueue();
+	}
+
+	@Bean
+	public AsyncRabbitTemplate asyncRabbitTemplate(ConnectionFactory connectionFactory,
+			@Value("${symbIoTe.trust.federation_history.timeout:10000}") long timeout) {
+		final RabbitTemplate rabbitTemplate = new RabbitTemplate(connectionFactory);
+		rabbitTemplate.setMessageConverter(jsonMessageConverter());
+
+		SimpleMessageListenerContainer replyContainer = new SimpleMessageListenerContainer(connectionFactory);
+		replyContainer.setQueues(federationHistoryReplyQueue());
+
+		AsyncRabbitTemplate asyncRabbitTemplate = new AsyncRabbitTemplate(rabbitTemplate, replyContainer);
+		asyncRabbitTemplate.setReceiveTimeout(timeout);
+		return asyncRabbitTemplate;
+	}
+
 	@Bean
 	public Queue federationHistoryQueue(@Value("${rabbit.queue.federation.get_federation_history}") String queue) {
 		return new Queue(queue);
@@ -83,6 +166,14 @@ class AppConfig extends AbstractMongoConfiguration {
 		return new TopicExchange(exchange, durable, autoDelete);
 	}
 
+	@Bean
+	public TopicExchange trustBatchTopic(@Value("${symbIoTe.trust.publish.batch.exchange:symbIoTe.trust.batch}") String exchange,
+			@Value("${" + RabbitConstants.EXCHANGE_TRUST_DURABLE_PROPERTY + "}") Boolean durable,
+			@Value("${" + RabbitConstants.EXCHANGE_TRUST_AUTODELETE_PROPERTY + "}") Boolean autoDelete) {
+		// separate exchange, so existing wildcard bindings on the trust exchange never receive list payloads
+		return new TopicExchange(exchange, durable, autoDelete);
+	}
+
 	@Override
 	public Mongo mongo() {
 		return new MongoClient();
@@ -1,21 +1,38 @@
 package eu.h2020.symbiote.tm.cron;
 
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
 import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
 import eu.h2020.symbiote.cloud.trust.model.TrustEntry.Type;
+import eu.h2020.symbiote.tm.repositories.TrustBulkWriter;
 import eu.h2020.symbiote.tm.repositories.TrustRepository;
+import eu.h2020.symbiote.tm.services.AdaptiveResourceTrustUpdater;
+import eu.h2020.symbiote.tm.services.ResourceTrustFingerprints;
 import eu.h2020.symbiote.tm.services.TrustAMQPService;
 import eu.h2020.symbiote.tm.services.TrustCalculationService;
+import eu.h2020.symbiote.tm.services.TrustPublishPolicy;
 
 /**
  * @author RuggenthalerC
@@ -33,6 +50,15 @@ public class TrustReputationUpdateTasks {
 	@Value("${platform.id}")
 	private String ownPlatformId;
 
+	@Value("${symbIoTe.trust.resource_trust.parallel:false}")
+	private boolean parallel;
+
+	@Value("${symbIoTe.trust.resource_trust.max_concurrency:16}")
+	private int maxConcurrency;
+
+	@Value("${symbIoTe.trust.resource_trust.chunk_size:100}")
+	private int chunkSize;
+
 	@Autowired
 	private TrustAMQPService amqpService;
 
@@ -42,58 +68,198 @@ public class TrustReputationUpdateTasks {
 	@Autowired
 	private TrustRepository trustRepository;
 
+	@Autowired
+	private TrustBulkWriter trustBulkWriter;
+
+	@Autowired
+	private AdaptiveResourceTrustUpdater artUpdater;
+
+	@Autowired
+	private TrustPublishPolicy publishPolicy;
+
+	@Autowired
+	private ResourceTrustFingerprints fingerprints;
+
+	@Autowired
+	private ThreadPoolTaskExecutor trustUpdateExecutor;
+
+	private boolean artSwept = false;
+
 	@Scheduled(cron = "${symbIoTe.trust.resource_trust.period}")
 	public void scheduleResourceTrustUpdate() {
-		List<TrustEntry> entries = trustRepository.findEntriesUpdatedAfterByPlatform(getUpdateInterval(), Type.RESOURCE_TRUST, ownPlatformId);
-		logger.debug("Resource Trust update triggered for {} entries", entries.size());
+		try (Stream<TrustEntry> entries = trustRepository.streamEntriesUpdatedAfterByPlatform(getUpdateInterval(), Type.RESOURCE_TRUST, ownPlatformId)) {
+			int cnt = forEachChunk(entries, parallel, this::updateResourceTrust);
+			logger.debug("Resource Trust update triggered for {} entries", cnt);
+		}
+		trustBulkWriter.flush();
+		amqpService.flushBatches();
+	}
+
+	private void updateResourceTrust(List<TrustEntry> chunk) {
+		Map<String, Double> rtValues = trustService.calcChangedResourceTrust(chunk.stream().map(TrustEntry::getResourceId).collect(Collectors.toList()));
+		List<String> unchangedIds = new ArrayList<>();
+
+		chunk.forEach(entry -> {
+			// inputs unchanged -> only bump the update time
+			if (!rtValues.containsKey(entry.getResourceId())) {
+				unchangedIds.add(entry.getId());
+				return;
+			}
 
-		entries.forEach(entry -> {
 			Double curVal = entry.getValue();
 
-			entry.updateEntry(trustService.calcResourceTrust(entry.getResourceId()));
-			trustRepository.save(entry);
+			entry.updateEntry(rtValues.get(entry.getResourceId()));
 
-			if (shouldPublishUpdate(curVal, entry.getValue())) {
-				amqpService.publishResourceTrustUpdate(entry);
-				logger.debug("Resource Trust for resource {} updated: {} to {}", entry.getResourceId(), curVal, entry.getValue());
-			}
+			// published only once the value is stored, inputs of failed writes are discarded to recalculate them next cycle
+			trustBulkWriter.write(entry).whenComplete((written, e) -> {
+				if (e != null) {
+					fingerprints.remove(Collections.singletonList(entry.getResourceId()));
+				} else if (publishPolicy.shouldPublish(written, curVal)) {
+					amqpService.publishResourceTrustUpdate(written);
+					logger.debug("Resource Trust for resource {} updated: {} to {}", written.getResourceId(), curVal, written.getValue());
+				}
+			});
 		});
+
+		trustBulkWriter.touch(unchangedIds);
 	}
 
 	@Scheduled(cron = "${symbIoTe.trust.platform_reputation.period}")
 	public void schedulePlatformReputationUpdate() {
-		List<TrustEntry> entries = trustRepository.findEntriesUpdatedAfter(getUpdateInterval(), Type.PLATFORM_REPUTATION);
-		logger.debug("Platform Reputation update triggered for {} entries", entries.size());
+		// anomaly detection stats of all platforms are fetched once per cycle
+		Map<String, Integer> adStats = trustService.loadPlatformADStats();
+		Map<String, Integer> cycleADStats = adStats != null ? adStats : Collections.emptyMap();
+		List<CompletableFuture<TrustEntry>> changedWrites = new ArrayList<>();
+
+		try (Stream<TrustEntry> entries = trustRepository.streamEntriesUpdatedAfter(getUpdateInterval(), Type.PLATFORM_REPUTATION)) {
+			int cnt = forEachChunk(entries, false, chunk -> changedWrites.addAll(updatePlatformReputation(chunk, cycleADStats)));
+			logger.debug("Platform Reputation update triggered for {} entries", cnt);
+		}
+		trustBulkWriter.flush();
+		amqpService.flushBatches();
+
+		// waits for writes still executed by a concurrent flush, failed writes are skipped
+		List<TrustEntry> changedEntries = changedWrites.stream().map(write -> write.handle((written, e) -> written).join()).filter(Objects::nonNull)
+				.collect(Collectors.toList());
 
-		entries.forEach(entry -> {
+		// recompute adaptive resource trust of the resources of changed platforms only
+		artUpdater.platformReputationChanged(changedEntries);
+	}
+
+	/**
+	 * @return pending writes of the entries whose value changed
+	 */
+	private List<CompletableFuture<TrustEntry>> updatePlatformReputation(List<TrustEntry> chunk, Map<String, Integer> adStats) {
+		// reputation sources of all platforms of the chunk are fetched concurrently
+		Map<String, Double> prValues = trustService.calcPlatformReputation(chunk.stream().map(TrustEntry::getPlatformId).collect(Collectors.toList()),
+				adStats);
+		List<CompletableFuture<TrustEntry>> changedWrites = new ArrayList<>();
+
+		chunk.forEach(entry -> {
 			Double curVal = entry.getValue();
 
-			entry.updateEntry(trustService.calcPlatformReputation(entry.getPlatformId()));
-			trustRepository.save(entry);
+			entry.updateEntry(prValues.get(entry.getPlatformId()));
+
+			// published only once the value is stored
+			CompletableFuture<TrustEntry> write = trustBulkWriter.write(entry);
+			write.thenAccept(written -> {
+				if (publishPolicy.shouldPublish(written, curVal)) {
+					amqpService.publishPlatformReputationUpdate(written);
+					logger.debug("Platform Reputation for platform {} updated: {} to {}", written.getPlatformId(), curVal, written.getValue());
+				}
+			});
 
-			if (shouldPublishUpdate(curVal, entry.getValue())) {
-				amqpService.publishPlatformReputationUpdate(entry);
-				logger.debug("Platform Reputation for platform {} updated: {} to {}", entry.getPlatformId(), curVal, entry.getValue());
+			// adaptive resource trust follows every changed value, whether it is published or not
+			if (!Objects.equals(curVal, entry.getValue())) {
+				changedWrites.add(write);
 			}
 		});
+
+		return changedWrites;
 	}
 
 	@Scheduled(cron = "${symbIoTe.trust.adaptive_resource_trust.period}")
 	public void scheduleAdaptiveResourceTrustUpdate() {
-		List<TrustEntry> entries = trustRepository.findEntriesUpdatedAfter(getUpdateInterval(), Type.ADAPTIVE_RESOURCE_TRUST);
-		logger.debug("Adaptive Resource Trust update triggered for {} entries", entries.size());
+		// platform reputation entries are loaded once per cycle, resource trust entries once per chunk
+		Map<String, TrustEntry> prEntries = new HashMap<>();
 
-		entries.forEach(entry -> {
-			Double curVal = entry.getValue();
+		// in incremental mode entries are recomputed on changes of their inputs, the cycle only steps entries which have not converged yet and
+		// retries entries without value. The first cycle after startup recomputes all entries as the convergence state is kept in memory.
+		boolean incremental = artUpdater.isIncremental() && artSwept;
+		int cnt = incremental ? artUpdater.updateUnconverged(prEntries) : 0;
+
+		try (Stream<TrustEntry> entries = incremental
+				? trustRepository.streamEntriesWithoutValueUpdatedAfter(getUpdateInterval(), Type.ADAPTIVE_RESOURCE_TRUST)
+				: trustRepository.streamEntriesUpdatedAfter(getUpdateInterval(), Type.ADAPTIVE_RESOURCE_TRUST)) {
+			cnt += forEachChunk(entries, false, chunk -> artUpdater.updateEntries(chunk, prEntries));
+			logger.debug("Adaptive Resource Trust update triggered for {} entries", cnt);
+		}
+		trustBulkWriter.flush();
+		amqpService.flushBatches();
+
+		artSwept = true;
+	}
 
-			entry.updateEntry(trustService.calcAdaptiveResourceTrust(curVal, entry.getResourceId(), entry.getPlatformId()));
-			trustRepository.save(entry);
+	/**
+	 * Splits the streamed entries into chunks of chunkSize entries and runs the given task for each chunk as soon as it is complete. In parallel mode
+	 * the chunks are processed on the trust update executor with at most maxConcurrency chunks in flight, further entries are only read once a
+	 * running task has finished. Returns after all chunks of this cycle are processed.
+	 * 
+	 * @return number of processed entries
+	 */
+	private int forEachChunk(Stream<TrustEntry> entries, boolean inParallel, Consumer<List<TrustEntry>> task) {
+		Semaphore permits = new Semaphore(maxConcurrency);
+		int size = Math.max(1, chunkSize);
+		int cnt = 0;
 
-			if (shouldPublishUpdate(curVal, entry.getValue())) {
-				amqpService.publishAdaptiveResourceTrustUpdate(entry);
-				logger.debug("Adaptive Resource Trust for resource {} updated: {} to {}", entry.getResourceId(), curVal, entry.getValue());
+		try {
+			List<TrustEntry> chunk = new ArrayList<>(size);
+			Iterator<TrustEntry> it = entries.iterator();
+			while (it.hasNext()) {
+				chunk.add(it.next());
+				cnt++;
+
+				if (chunk.size() >= size || !it.hasNext()) {
+					if (inParallel) {
+						submitBounded(permits, chunk, task);
+					} else {
+						task.accept(chunk);
+					}
+					chunk = new ArrayList<>(size);
+				}
 			}
-		});
+
+			if (inParallel) {
+				// wait for all running tasks of this cycle
+				permits.acquire(maxConcurrency);
+				permits.release(maxConcurrency);
+			}
+		} catch (InterruptedException e) {
+			logger.warn("Trust update cycle interrupted");
+			Thread.currentThread().interrupt();
+		}
+
+		return cnt;
+	}
+
+	private void submitBounded(Semaphore permits, List<TrustEntry> chunk, Consumer<List<TrustEntry>> task) throws InterruptedException {
+		permits.acquire();
+		Runnable r = () -> {
+			try {
+				task.accept(chunk);
+			} catch (Exception e) {
+				logger.warn("Trust update task failed", e);
+			} finally {
+				permits.release();
+			}
+		};
+
+		try {
+			trustUpdateExecutor.execute(r);
+		} catch (RejectedExecutionException e) {
+			// executor saturated or shutting down -> process in calling thread
+			r.run();
+		}
 	}
 
 	private Date getUpdateInterval() {
@@ -101,12 +267,4 @@ public class TrustReputationUpdateTasks {
 		cal.add(Calendar.MINUTE, -interval);
 		return cal.getTime();
 	}
-
-	private boolean shouldPublishUpdate(Double curVal, Double newVal) {
-		if (curVal != null) {
-			return !curVal.equals(newVal);
-		}
-
-		return newVal != null;
-	}
 }
\ No newline at end of file
@@ -1,6 +1,13 @@
 package eu.h2020.symbiote.tm.interfaces.listeners;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -8,10 +15,14 @@ import org.springframework.amqp.rabbit.annotation.Exchange;
 import org.springframework.amqp.rabbit.annotation.Queue;
 import org.springframework.amqp.rabbit.annotation.QueueBinding;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.amqp.support.AmqpHeaders;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.stereotype.Service;
 
+import com.rabbitmq.client.Channel;
+
 import eu.h2020.symbiote.cloud.model.internal.CloudResource;
 import eu.h2020.symbiote.cloud.model.internal.ResourcesAddedOrUpdatedMessage;
 import eu.h2020.symbiote.cloud.model.internal.ResourcesDeletedMessage;
@@ -19,8 +30,14 @@ import eu.h2020.symbiote.cloud.sla.model.ViolationNotification;
 import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
 import eu.h2020.symbiote.cloud.trust.model.TrustEntry.Type;
 import eu.h2020.symbiote.model.mim.Federation;
-import eu.h2020.symbiote.tm.repositories.SLAViolationRepository;
+import eu.h2020.symbiote.model.mim.FederationMember;
+import eu.h2020.symbiote.tm.repositories.TrustBulkWriter;
 import eu.h2020.symbiote.tm.repositories.TrustRepository;
+import eu.h2020.symbiote.tm.services.AdaptiveResourceTrustUpdater;
+import eu.h2020.symbiote.tm.services.FederationHistoryCache;
+import eu.h2020.symbiote.tm.services.ResourceTrustFastLane;
+import eu.h2020.symbiote.tm.services.ResourceTrustFingerprints;
+import eu.h2020.symbiote.tm.services.TrustPublishPolicy;
 import eu.h2020.symbiote.util.RabbitConstants;
 
 /**
@@ -36,7 +53,28 @@ public class EventUpdateListener {
 	private TrustRepository trustRepository;
 
 	@Autowired
-	private SLAViolationRepository violationRepository;
+	private TrustBulkWriter trustBulkWriter;
+
+	@Autowired
+	private SLAViolationBatchConsumer violationBatchConsumer;
+
+	@Autowired
+	private KeyedLaneDispatcher laneDispatcher;
+
+	@Autowired
+	private FederationHistoryCache federationHistoryCache;
+
+	@Autowired
+	private AdaptiveResourceTrustUpdater artUpdater;
+
+	@Autowired
+	private ResourceTrustFingerprints fingerprints;
+
+	@Autowired
+	private TrustPublishPolicy publishPolicy;
+
+	@Autowired
+	private ResourceTrustFastLane fastLane;
 
 	@Value("${platform.id}")
 	private String ownPlatformId;
@@ -54,20 +92,26 @@ public class EventUpdateListener {
 	public void receiveOwnSharedResources(List<CloudResource> registeredResList) {
 		logger.debug("receiveOwnSharedResources = " + registeredResList);
 		if (registeredResList != null) {
-			registeredResList.forEach(cr -> {
-				if (cr != null) {
-					TrustEntry te = new TrustEntry(Type.RESOURCE_TRUST, ownPlatformId, cr.getInternalId());
-					// add new entry if not exists
-					if (!trustRepository.exists(te.getId())) {
-						// Store empty own resource trust object -> cron will update resource trust
-						trustRepository.save(te);
-						logger.debug("Added own resource: internalId {} from platform {}", te.getResourceId(), te.getPlatformId());
-					}
-				}
-			});
+			laneDispatcher.dispatch(registeredResList.stream().filter(Objects::nonNull).collect(Collectors.toList()), CloudResource::getInternalId,
+					this::addOwnResources);
 		}
 	}
 
+	private void addOwnResources(List<CloudResource> registeredResList) {
+		List<String> addedResIds = new ArrayList<>();
+		registeredResList.forEach(cr -> {
+			TrustEntry te = new TrustEntry(Type.RESOURCE_TRUST, ownPlatformId, cr.getInternalId());
+			// add new entry if not exists
+			if (!trustRepository.exists(te.getId())) {
+				// Store empty own resource trust object -> fast lane calculates the first resource trust value
+				trustRepository.save(te);
+				addedResIds.add(te.getResourceId());
+				logger.debug("Added own resource: internalId {} from platform {}", te.getResourceId(), te.getPlatformId());
+			}
+		});
+		fastLane.resourcesAdded(addedResIds);
+	}
+
 	/**
 	 * Receives own resource deletion updates from RH.
 	 * 
@@ -81,14 +125,20 @@ public class EventUpdateListener {
 	public void receiveOwnUnsharedResources(List<String> deletedResList) {
 		logger.debug("receiveOwnUnsharedResources = " + deletedResList);
 		if (deletedResList != null) {
-			deletedResList.forEach(resId -> {
-				TrustEntry te = new TrustEntry(Type.RESOURCE_TRUST, ownPlatformId, resId);
-				trustRepository.delete(te.getId());
-				logger.debug("Deleted own resource: internalId {} from platform {}", te.getResourceId(), te.getPlatformId());
-			});
+			laneDispatcher.dispatch(deletedResList, Function.identity(), this::deleteOwnResources);
 		}
 	}
 
+	private void deleteOwnResources(List<String> deletedResList) {
+		deletedResList.forEach(resId -> {
+			TrustEntry te = new TrustEntry(Type.RESOURCE_TRUST, ownPlatformId, resId);
+			trustRepository.delete(te.getId());
+			publishPolicy.remove(te.getId());
+			logger.debug("Deleted own resource: internalId {} from platform {}", te.getResourceId(), te.getPlatformId());
+		});
+		fingerprints.remove(deletedResList);
+	}
+
 	/**
 	 * Receives foreign resource adding/updating messages from SM and stores the resource trust values.
 	 * 
@@ -103,6 +153,7 @@ public class EventUpdateListener {
 	public void receiveForeignSharedResources(ResourcesAddedOrUpdatedMessage sharedResources) {
 		logger.debug("receiveForeignSharedResources = " + sharedResources);
 		if (sharedResources != null && sharedResources.getNewFederatedResources() != null) {
+			Map<String, TrustEntry> rtEntries = new LinkedHashMap<>();
 			sharedResources.getNewFederatedResources().forEach(res -> {
 				if (res != null && res.getCloudResource() != null && res.getCloudResource().getFederationInfo() != null
 						&& res.getCloudResource().getFederationInfo().getSharingInformation() != null) {
@@ -111,22 +162,46 @@ public class EventUpdateListener {
 						// Store shared foreign resource trust object
 						TrustEntry rte = new TrustEntry(Type.RESOURCE_TRUST, res.getPlatformId(), info.getSymbioteId());
 						rte.updateEntry(sanitizeValue(res.getCloudResource().getFederationInfo().getResourceTrust()));
-						trustRepository.save(rte);
-
-						// Store adaptive resource trust value for further processing
-						TrustEntry arte = new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, res.getPlatformId(), info.getSymbioteId());
-						if (!trustRepository.exists(arte.getId())) {
-							trustRepository.save(arte);
-						}
-
-						logger.debug("Updated foreign resource trust value: resource {} with score {} from platform {}", rte.getResourceId(), rte.getValue(),
-								rte.getPlatformId());
+						rtEntries.put(rte.getResourceId(), rte);
 					});
 				}
 			});
+
+			// one lookup and one bulk write for the whole message instead of one per lane
+			if (!rtEntries.isEmpty()) {
+				storeForeignResourceTrust(new ArrayList<>(rtEntries.values()));
+			}
 		}
 	}
 
+	private void storeForeignResourceTrust(List<TrustEntry> rtEntries) {
+		// current values are fetched with a single query for change detection
+		Map<String, TrustEntry> curRtEntries = new HashMap<>();
+		trustRepository.findRTEntriesByResourceIds(rtEntries.stream().map(TrustEntry::getResourceId).collect(Collectors.toList()))
+				.forEach(te -> curRtEntries.put(te.getResourceId(), te));
+
+		List<String> changedResIds = new ArrayList<>();
+		List<TrustEntry> artEntries = new ArrayList<>();
+		rtEntries.forEach(rte -> {
+			TrustEntry curRte = curRtEntries.get(rte.getResourceId());
+			if (curRte == null || !Objects.equals(curRte.getValue(), rte.getValue())) {
+				changedResIds.add(rte.getResourceId());
+			}
+
+			// Store adaptive resource trust value for further processing
+			artEntries.add(new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, rte.getPlatformId(), rte.getResourceId()));
+
+			logger.debug("Updated foreign resource trust value: resource {} with score {} from platform {}", rte.getResourceId(), rte.getValue(),
+					rte.getPlatformId());
+		});
+
+		// RT entries are replaced, ART entries only inserted if absent
+		trustBulkWriter.upsert(rtEntries, artEntries);
+
+		// recompute adaptive resource trust of changed resources only
+		artUpdater.resourceTrustChanged(changedResIds);
+	}
+
 	private Double sanitizeValue(Double val) {
 		if (val != null && !val.isNaN()) {
 			return Math.min(Math.max(val, 0), 100);
@@ -149,18 +224,24 @@ public class EventUpdateListener {
 	public void receiveForeignUnsharedResources(ResourcesDeletedMessage unsharedResources) {
 		logger.debug("receiveForeignUnsharedResources = " + unsharedResources);
 		if (unsharedResources != null && unsharedResources.getDeletedFederatedResources() != null) {
-			unsharedResources.getDeletedFederatedResources().forEach(resId -> {
-				// Delete shared resource trust value
-				TrustEntry rte = new TrustEntry(Type.RESOURCE_TRUST, null, resId);
-				trustRepository.delete(rte.getId());
+			laneDispatcher.dispatch(unsharedResources.getDeletedFederatedResources(), Function.identity(), this::deleteForeignResources);
+		}
+	}
 
-				// Delete ART as resource is unshared and ART no longer needed
-				TrustEntry arte = new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, null, resId);
-				trustRepository.delete(arte.getId());
+	private void deleteForeignResources(List<String> deletedResList) {
+		deletedResList.forEach(resId -> {
+			// Delete shared resource trust value
+			TrustEntry rte = new TrustEntry(Type.RESOURCE_TRUST, null, resId);
+			trustRepository.delete(rte.getId());
+			publishPolicy.remove(rte.getId());
 
-				logger.debug("Removed foreign resource trust value: resource {}", rte.getResourceId());
-			});
-		}
+			// Delete ART as resource is unshared and ART no longer needed
+			TrustEntry arte = new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, null, resId);
+			trustRepository.delete(arte.getId());
+			publishPolicy.remove(arte.getId());
+
+			logger.debug("Removed foreign resource trust value: resource {}", rte.getResourceId());
+		});
 	}
 
 	/**
@@ -172,7 +253,7 @@ public class EventUpdateListener {
 	@RabbitListener(bindings = @QueueBinding(value = @Queue, exchange = @Exchange(value = "${rabbit.exchange.federation}", durable = "${rabbit.exchange.federation.durable}", internal = "${rabbit.exchange.federation.internal}", autoDelete = "${rabbit.exchange.federation.autodelete}", type = "${rabbit.exchange.federation.type}"), key = "${rabbit.routingKey.federation.created}"))
 	public void receiveFederationCreated(Federation fed) {
 		logger.debug("receiveFederationCreated = " + fed);
-		updatePlatformEntries(fed);
+		updateFederationMembers(fed);
 	}
 
 	/**
@@ -184,35 +265,42 @@ public class EventUpdateListener {
 	@RabbitListener(bindings = @QueueBinding(value = @Queue, exchange = @Exchange(value = "${rabbit.exchange.federation}", durable = "${rabbit.exchange.federation.durable}", internal = "${rabbit.exchange.federation.internal}", autoDelete = "${rabbit.exchange.federation.autodelete}", type = "${rabbit.exchange.federation.type}"), key = "${rabbit.routingKey.federation.changed}"))
 	public void receiveFederationUpdated(Federation fed) {
 		logger.debug("receiveFederationUpdated = " + fed);
-		updatePlatformEntries(fed);
+		updateFederationMembers(fed);
 	}
 
 	/**
-	 * Receives SLA violation object from SLA Manager.
+	 * Receives SLA violation object from SLA Manager. Violations are stored and acknowledged in batches.
 	 * 
 	 * @param slaNotification
 	 *            object containing violations.
+	 * @param channel
+	 *            channel the message was received on
+	 * @param deliveryTag
+	 *            delivery tag of the message
 	 */
-	@RabbitListener(bindings = @QueueBinding(value = @Queue, exchange = @Exchange(value = "${rabbit.exchange.sla.name}", durable = "${rabbit.exchange.sla.durable}", internal = "${rabbit.exchange.sla.internal}", autoDelete = "${rabbit.exchange.sla.autodelete}", type = "${rabbit.exchange.sla.type}"), key = "${rabbit.routingKey.sla.violation}"))
-	public void receiveSLAViolation(ViolationNotification slaNotification) {
-		if (slaNotification != null && slaNotification.getViolations() != null) {
-			slaNotification.getViolations().forEach(violation -> {
-				violationRepository.save(violation);
-			});
-		}
+	@RabbitListener(containerFactory = "slaListenerContainerFactory", bindings = @QueueBinding(value = @Queue, exchange = @Exchange(value = "${rabbit.exchange.sla.name}", durable = "${rabbit.exchange.sla.durable}", internal = "${rabbit.exchange.sla.internal}", autoDelete = "${rabbit.exchange.sla.autodelete}", type = "${rabbit.exchange.sla.type}"), key = "${rabbit.routingKey.sla.violation}"))
+	public void receiveSLAViolation(ViolationNotification slaNotification, Channel channel, @Header(AmqpHeaders.DELIVERY_TAG) long deliveryTag) {
+		violationBatchConsumer.add(channel, deliveryTag, slaNotification != null ? slaNotification.getViolations() : null);
 	}
 
-	private void updatePlatformEntries(Federation fed) {
+	private void updateFederationMembers(Federation fed) {
 		if (fed != null && fed.getMembers() != null) {
-			fed.getMembers().forEach(fedMem -> {
-				TrustEntry te = new TrustEntry(Type.PLATFORM_REPUTATION, fedMem.getPlatformId(), null);
-				// add new entry if not exists
-				if (!trustRepository.exists(te.getId())) {
-					// Store empty reputation trust object -> cron will update resource trust
-					trustRepository.save(te);
-					logger.debug("Added federated platform {} from federation {}", te.getPlatformId(), fed.getId());
-				}
+			laneDispatcher.dispatch(fed.getMembers(), FederationMember::getPlatformId, members -> {
+				updatePlatformEntries(fed.getId(), members);
+				federationHistoryCache.invalidate(members.stream().map(FederationMember::getPlatformId).collect(Collectors.toList()));
 			});
 		}
 	}
+
+	private void updatePlatformEntries(String fedId, List<FederationMember> members) {
+		members.forEach(fedMem -> {
+			TrustEntry te = new TrustEntry(Type.PLATFORM_REPUTATION, fedMem.getPlatformId(), null);
+			// add new entry if not exists
+			if (!trustRepository.exists(te.getId())) {
+				// Store empty reputation trust object -> cron will update resource trust
+				trustRepository.save(te);
+				logger.debug("Added federated platform {} from federation {}", te.getPlatformId(), fedId);
+			}
+		});
+	}
 }
\ No newline at end of file
@@ -0,0 +1,151 @@
+package eu.h2020.symbiote.tm.interfaces.listeners;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Dispatches listener work onto ordered worker lanes. Items are hashed by their key (resource or platform ID) onto a lane, each lane is
+ * processed by a single thread, so updates of the same key stay strictly ordered while different keys are processed in parallel. With 0
+ * lanes the work is executed inline on the listener thread.
+ */
+@Component
+public class KeyedLaneDispatcher implements PublicMetrics {
+	private static final Logger logger = LoggerFactory.getLogger(KeyedLaneDispatcher.class);
+
+	@Value("${symbIoTe.trust.listener.lanes:0}")
+	private int laneCount;
+
+	@Value("${symbIoTe.trust.listener.lane_capacity:1000}")
+	private int laneCapacity;
+
+	@Value("${symbIoTe.trust.listener.lane_timeout:60000}")
+	private long laneTimeout;
+
+	private final List<ThreadPoolExecutor> lanes = new ArrayList<>();
+
+	@PostConstruct
+	public void start() {
+		for (int i = 0; i < laneCount; i++) {
+			int lane = i;
+			// full lanes block the listener thread instead of rejecting, this keeps the order and applies back pressure to the broker
+			lanes.add(new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(Math.max(1, laneCapacity)), r -> {
+				Thread t = new Thread(r, "listener-lane-" + lane);
+				t.setDaemon(true);
+				return t;
+			}, (r, executor) -> {
+				if (executor.isShutdown()) {
+					throw new RejectedExecutionException("Lane " + lane + " is shut down");
+				}
+				try {
+					executor.getQueue().put(r);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RejectedExecutionException("Interrupted while waiting for lane capacity", e);
+				}
+				// shut down while waiting for capacity -> the task might never be taken from the queue
+				if (executor.isShutdown() && executor.remove(r)) {
+					throw new RejectedExecutionException("Lane " + lane + " is shut down");
+				}
+			}));
+		}
+		logger.info("Listener work dispatched on {} lanes", laneCount);
+	}
+
+	@PreDestroy
+	public void stop() throws InterruptedException {
+		lanes.forEach(ExecutorService::shutdown);
+		for (ExecutorService lane : lanes) {
+			lane.awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * Partitions the items by the lane of their key and passes each partition to the handler on its lane. The order of items within a
+	 * partition is kept. Returns once all partitions are processed, so the received message is only acknowledged after its work is done.
+	 *
+	 * @param items
+	 *            items to process
+	 * @param keyFunction
+	 *            key of an item (resource or platform ID)
+	 * @param handler
+	 *            processes a partition of items
+	 * @throws RuntimeException
+	 *             first failure of the handler, rethrown after all partitions completed so the message is rejected. Also thrown if the
+	 *             partitions did not complete within symbIoTe.trust.listener.lane_timeout ms or a lane is shut down.
+	 */
+	public <T> void dispatch(Collection<T> items, Function<T, String> keyFunction, Consumer<List<T>> handler) {
+		if (items.isEmpty()) {
+			return;
+		}
+
+		if (lanes.isEmpty()) {
+			handler.accept(new ArrayList<>(items));
+			return;
+		}
+
+		Map<Integer, List<T>> partitions = new LinkedHashMap<>();
+		items.forEach(item -> partitions.computeIfAbsent(laneOf(keyFunction.apply(item)), lane -> new ArrayList<>()).add(item));
+
+		List<Future<?>> tasks = new ArrayList<>();
+		partitions.forEach((lane, partition) -> tasks.add(lanes.get(lane).submit(() -> handler.accept(partition))));
+
+		long deadline = System.currentTimeMillis() + laneTimeout;
+		RuntimeException failure = null;
+		for (Future<?> task : tasks) {
+			try {
+				task.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : new IllegalStateException(e.getCause());
+				}
+			} catch (TimeoutException e) {
+				// tasks not started yet are dropped, the rejected message is redelivered
+				tasks.forEach(t -> t.cancel(false));
+				throw new IllegalStateException("Lane tasks did not complete within " + laneTimeout + " ms", e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while waiting for lane tasks", e);
+			}
+		}
+
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private int laneOf(String key) {
+		return key != null ? Math.floorMod(key.hashCode(), lanes.size()) : 0;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		for (int i = 0; i < lanes.size(); i++) {
+			metrics.add(new Metric<>("trust.listener.lane." + i + ".queued", lanes.get(i).getQueue().size()));
+		}
+		return metrics;
+	}
+}
@@ -0,0 +1,139 @@
+package eu.h2020.symbiote.tm.interfaces.listeners;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.rabbitmq.client.Channel;
+
+import eu.h2020.symbiote.cloud.sla.model.Violation;
+import eu.h2020.symbiote.tm.repositories.SLAViolationRepository;
+import eu.h2020.symbiote.tm.services.ResourceTrustFastLane;
+import eu.h2020.symbiote.tm.services.SLAViolationCounter;
+
+/**
+ * Collects SLA violations received with manual acknowledge mode per channel. A batch is persisted with a single insert as soon as the
+ * batch size or the max wait time is reached, afterwards all its messages are acknowledged at once. Failed batches are requeued, after
+ * max_attempts consecutive failures of a channel they are rejected without requeue (dead-lettered if the queue is configured for it).
+ */
+@Component
+public class SLAViolationBatchConsumer {
+	private static final Logger logger = LoggerFactory.getLogger(SLAViolationBatchConsumer.class);
+
+	@Value("${symbIoTe.trust.sla.batch.size:100}")
+	private int batchSize;
+
+	@Value("${symbIoTe.trust.sla.batch.max_attempts:3}")
+	private int maxAttempts;
+
+	@Autowired
+	private SLAViolationRepository violationRepository;
+
+	@Autowired
+	private SLAViolationCounter violationCounter;
+
+	@Autowired
+	private ResourceTrustFastLane fastLane;
+
+	private final Map<Channel, Batch> batches = new ConcurrentHashMap<>();
+
+	/**
+	 * Adds the violations of a received message to the batch of its channel.
+	 *
+	 * @param channel
+	 *            channel the message was received on
+	 * @param deliveryTag
+	 *            delivery tag of the message
+	 * @param violations
+	 *            received violations (can be null)
+	 */
+	public void add(Channel channel, long deliveryTag, List<Violation> violations) {
+		Batch batch = batches.computeIfAbsent(channel, c -> new Batch());
+
+		synchronized (batch) {
+			if (violations != null) {
+				violations.stream().filter(Objects::nonNull).forEach(batch.violations::add);
+			}
+			batch.lastDeliveryTag = deliveryTag;
+
+			if (batch.violations.size() >= batchSize) {
+				write(channel, batch);
+			}
+		}
+	}
+
+	/**
+	 * Writes and acknowledges all pending batches. Triggered every symbIoTe.trust.sla.batch.max_wait ms.
+	 */
+	@Scheduled(fixedDelayString = "${symbIoTe.trust.sla.batch.max_wait:500}")
+	public void flush() {
+		batches.forEach((channel, batch) -> {
+			synchronized (batch) {
+				if (batch.lastDeliveryTag > 0) {
+					write(channel, batch);
+				}
+			}
+			if (!channel.isOpen()) {
+				// unacknowledged messages of closed channels are redelivered by the broker
+				batches.remove(channel);
+			}
+		});
+	}
+
+	private void write(Channel channel, Batch batch) {
+		if (!channel.isOpen()) {
+			// delivery tags of a closed channel are invalid, its unacknowledged messages are redelivered by the broker
+			logger.debug("Discarded {} SLA violations of closed channel", batch.violations.size());
+			reset(batch);
+			return;
+		}
+
+		try {
+			if (!batch.violations.isEmpty()) {
+				// redelivered or duplicated violations are not stored nor counted again
+				List<Violation> inserted = violationRepository.insertNew(batch.violations);
+				inserted.forEach(violationCounter::record);
+				fastLane.violationsReceived(inserted.stream().map(Violation::getDeviceId).distinct().collect(Collectors.toList()));
+			}
+			channel.basicAck(batch.lastDeliveryTag, true);
+			batch.failures = 0;
+			logger.debug("Stored {} SLA violations", batch.violations.size());
+		} catch (Exception e) {
+			// poison messages are not requeued forever
+			boolean requeue = ++batch.failures < maxAttempts;
+			logger.warn("Storing {} SLA violations failed (attempt {}, requeue {})", batch.violations.size(), batch.failures, requeue, e);
+			try {
+				channel.basicNack(batch.lastDeliveryTag, true, requeue);
+			} catch (IOException ex) {
+				logger.warn("Rejecting SLA violation messages failed: {}", ex.getMessage());
+			}
+			if (!requeue) {
+				batch.failures = 0;
+			}
+		}
+
+		reset(batch);
+	}
+
+	private void reset(Batch batch) {
+		batch.violations = new ArrayList<>();
+		batch.lastDeliveryTag = 0;
+	}
+
+	private static class Batch {
+		private List<Violation> violations = new ArrayList<>();
+		private long lastDeliveryTag = 0;
+		private int failures = 0;
+	}
+}
@@ -1,5 +1,10 @@
 package eu.h2020.symbiote.tm.interfaces.rest;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -26,6 +31,16 @@ public class AuthManager {
 
 	private final boolean isSecurityEnabled;
 
+	@Value("${symbIoTe.trust.security.header_validity:30000}")
+	private long headerValidity;
+
+	@Value("${symbIoTe.trust.security.header_refresh_ahead:5000}")
+	private long headerRefreshAhead;
+
+	private volatile CachedHeaders cachedHeaders = null;
+
+	private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
 	@Autowired
 	public AuthManager(@Value("${symbIoTe.component.username}") String componentOwnerName,
 			@Value("${symbIoTe.component.password}") String componentOwnerPassword, @Value("${symbIoTe.localaam.url}") String aamAddress,
@@ -46,7 +61,8 @@ public class AuthManager {
 	}
 
 	/**
-	 * Generates Security headers for request.
+	 * Generates Security headers for request. Generated headers are reused within symbIoTe.trust.security.header_validity ms and refreshed in
+	 * background shortly before they expire.
 	 * 
 	 * @return {@link HttpHeaders}
 	 */
@@ -54,19 +70,53 @@ public class AuthManager {
 		HttpHeaders httpHeaders = new HttpHeaders();
 
 		if (isSecurityEnabled) {
-			try {
-				SecurityRequest securityRequest = securityHandler.generateSecurityRequestUsingLocalCredentials();
-				securityRequest.getSecurityRequestHeaderParams().entrySet().forEach(entry -> {
+			CachedHeaders headers = getCachedHeaders();
+			if (headers != null) {
+				headers.params.entrySet().forEach(entry -> {
 					httpHeaders.add(entry.getKey(), entry.getValue());
 				});
-			} catch (Exception e) {
-				logger.warn("Security request generation failed", e);
 			}
 		}
 
 		return httpHeaders;
 	}
 
+	private CachedHeaders getCachedHeaders() {
+		long now = System.currentTimeMillis();
+		CachedHeaders headers = cachedHeaders;
+
+		if (headers != null && now < headers.expiresAt) {
+			if (now >= headers.expiresAt - headerRefreshAhead && refreshing.compareAndSet(false, true)) {
+				CompletableFuture.runAsync(() -> {
+					try {
+						refreshHeaders();
+					} finally {
+						refreshing.set(false);
+					}
+				});
+			}
+			return headers;
+		}
+
+		// nothing cached or expired: generate synchronously
+		return refreshHeaders();
+	}
+
+	private CachedHeaders refreshHeaders() {
+		try {
+			long generatedAt = System.currentTimeMillis();
+			SecurityRequest securityRequest = securityHandler.generateSecurityRequestUsingLocalCredentials();
+			CachedHeaders headers = new CachedHeaders(new HashMap<>(securityRequest.getSecurityRequestHeaderParams()), generatedAt + headerValidity);
+			if (headerValidity > 0) {
+				cachedHeaders = headers;
+			}
+			return headers;
+		} catch (Exception e) {
+			logger.warn("Security request generation failed", e);
+			return null;
+		}
+	}
+
 	/**
 	 * Verify security headers in response.
 	 * 
@@ -94,4 +144,14 @@ public class AuthManager {
 	public IComponentSecurityHandler getSecurityHandler() {
 		return this.securityHandler;
 	}
+
+	private static class CachedHeaders {
+		private final Map<String, String> params;
+		private final long expiresAt;
+
+		CachedHeaders(Map<String, String> params, long expiresAt) {
+			this.params = params;
+			this.expiresAt = expiresAt;
+		}
+	}
 }
\ No newline at end of file
@@ -0,0 +1,154 @@
+package eu.h2020.symbiote.tm.interfaces.rest;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.actuate.metrics.Metric;
+
+/**
+ * Circuit breaker with bulkhead for calls to a single external source. After failureThreshold consecutive failures the breaker opens and
+ * calls are short-circuited for openDuration ms, afterwards a single probe call decides whether it closes again. At most maxConcurrent
+ * calls are executed concurrently, further calls are rejected without waiting.
+ */
+public class CircuitBreaker {
+	private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	public enum State {
+		CLOSED, HALF_OPEN, OPEN
+	}
+
+	private final String name;
+
+	private final int failureThreshold;
+
+	private final long openDuration;
+
+	private final int maxConcurrent;
+
+	private final Semaphore bulkhead;
+
+	private State state = State.CLOSED;
+
+	private int failures = 0;
+
+	private long openedAt = 0;
+
+	private boolean probing = false;
+
+	private final AtomicLong rejected = new AtomicLong();
+
+	public CircuitBreaker(String name, int failureThreshold, long openDuration, int maxConcurrent) {
+		this.name = name;
+		this.failureThreshold = Math.max(1, failureThreshold);
+		this.openDuration = openDuration;
+		this.maxConcurrent = Math.max(1, maxConcurrent);
+		this.bulkhead = new Semaphore(this.maxConcurrent);
+	}
+
+	/**
+	 * Executes the call if permitted by breaker and bulkhead. Exceptions of the call are counted as failures and rethrown.
+	 *
+	 * @param call
+	 *            call to external source
+	 * @return result of the call
+	 * @throws CallRejectedException
+	 *             if the call was rejected by the bulkhead or short-circuited, i.e. the source was not called
+	 * @throws Exception
+	 *             exception thrown by the call
+	 */
+	public <T> T execute(Callable<T> call) throws Exception {
+		if (!bulkhead.tryAcquire()) {
+			rejected.incrementAndGet();
+			throw new CallRejectedException("Call to " + name + " rejected: max concurrent calls reached");
+		}
+
+		try {
+			if (!acquirePermission()) {
+				rejected.incrementAndGet();
+				throw new CallRejectedException("Call to " + name + " short-circuited: circuit open");
+			}
+
+			try {
+				T result = call.call();
+				onSuccess();
+				return result;
+			} catch (Exception e) {
+				onFailure();
+				throw e;
+			}
+		} finally {
+			bulkhead.release();
+		}
+	}
+
+	public synchronized State getState() {
+		if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openDuration) {
+			return State.HALF_OPEN;
+		}
+		return state;
+	}
+
+	private synchronized boolean acquirePermission() {
+		if (getState() == State.CLOSED) {
+			return true;
+		}
+
+		// open circuit with elapsed open duration: let a single probe call through
+		if (getState() == State.HALF_OPEN && !probing) {
+			state = State.HALF_OPEN;
+			probing = true;
+			return true;
+		}
+
+		return false;
+	}
+
+	private synchronized void onSuccess() {
+		if (state != State.CLOSED) {
+			logger.info("Circuit of {} closed", name);
+		}
+		state = State.CLOSED;
+		failures = 0;
+		probing = false;
+	}
+
+	private synchronized void onFailure() {
+		failures++;
+		if (state == State.HALF_OPEN || failures >= failureThreshold) {
+			if (state != State.OPEN) {
+				logger.warn("Circuit of {} opened after {} failures", name, failures);
+			}
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+		probing = false;
+	}
+
+	/**
+	 * @return breaker metrics: state (0 = closed, 1 = half open, 2 = open), rejected calls and calls in flight.
+	 */
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>("trust.circuit_breaker." + name + ".state", getState().ordinal()));
+		metrics.add(new Metric<>("trust.circuit_breaker." + name + ".rejected", rejected.get()));
+		metrics.add(new Metric<>("trust.circuit_breaker." + name + ".active", maxConcurrent - bulkhead.availablePermits()));
+		return metrics;
+	}
+
+	/**
+	 * Signals that a call was not executed, so callers can tell a skipped source from a source without data.
+	 */
+	public static class CallRejectedException extends Exception {
+		private static final long serialVersionUID = 1L;
+
+		public CallRejectedException(String message) {
+			super(message);
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package eu.h2020.symbiote.tm.interfaces.rest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Pooled keep-alive HTTP client backing the REST calls to Monitoring and Bartering. Connections (and their TLS sessions) are reused across
+ * calls, idle connections are evicted periodically.
+ */
+@Component
+public class PooledHttpClient implements PublicMetrics {
+	private static final Logger logger = LoggerFactory.getLogger(PooledHttpClient.class);
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+
+	private final CloseableHttpClient httpClient;
+
+	private final long idleTimeout;
+
+	@Autowired
+	public PooledHttpClient(@Value("${symbIoTe.trust.http.max_total:50}") int maxTotal,
+			@Value("${symbIoTe.trust.http.max_per_route:20}") int maxPerRoute, @Value("${symbIoTe.trust.http.keep_alive:30000}") long keepAlive,
+			@Value("${symbIoTe.trust.http.idle_timeout:60000}") long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+
+		connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(maxTotal);
+		connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+		// re-validate connections which were idle for a while before leasing them
+		connectionManager.setValidateAfterInactivity(2000);
+
+		httpClient = HttpClients.custom().setConnectionManager(connectionManager).setKeepAliveStrategy((response, context) -> {
+			// keep-alive announced by the server is capped, connections without announcement are kept for keepAlive ms
+			long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+		}).build();
+	}
+
+	public CloseableHttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	/**
+	 * Closes expired connections and connections idle for longer than symbIoTe.trust.http.idle_timeout.
+	 */
+	@Scheduled(fixedDelayString = "${symbIoTe.trust.http.idle_eviction_interval:30000}")
+	public void evictIdleConnections() {
+		connectionManager.closeExpiredConnections();
+		connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void close() {
+		try {
+			httpClient.close();
+		} catch (IOException e) {
+			logger.warn("Closing HTTP client failed: {}", e.getMessage());
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		PoolStats stats = connectionManager.getTotalStats();
+
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>("trust.http.pool.leased", stats.getLeased()));
+		metrics.add(new Metric<>("trust.http.pool.available", stats.getAvailable()));
+		metrics.add(new Metric<>("trust.http.pool.pending", stats.getPending()));
+		metrics.add(new Metric<>("trust.http.pool.max", stats.getMax()));
+		metrics.add(new Metric<>("trust.http.pool.routes", connectionManager.getRoutes().size()));
+		return metrics;
+	}
+}
@@ -1,25 +1,41 @@
 package eu.h2020.symbiote.tm.interfaces.rest;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.stereotype.Service;
+import org.springframework.web.client.RequestCallback;
 import org.springframework.web.client.RestTemplate;
 
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
 import eu.h2020.symbiote.barteringAndTrading.FilterRequest;
-import eu.h2020.symbiote.barteringAndTrading.FilterResponse;
 import eu.h2020.symbiote.cloud.monitoring.model.AggregatedMetrics;
 import eu.h2020.symbiote.security.commons.SecurityConstants;
 import eu.h2020.symbiote.security.communication.payloads.OriginPlatformGroupedPlatformMisdeedsReport;
@@ -31,15 +47,35 @@ import eu.h2020.symbiote.security.handler.IComponentSecurityHandler;
  *         Loads / fetching data via REST from other components for trust/reputation calculation.
  */
 @Service
-public class TrustStatsLoader {
+public class TrustStatsLoader implements PublicMetrics {
 	private static final Logger logger = LoggerFactory.getLogger(TrustStatsLoader.class);
 
+	private static final JsonFactory jsonFactory = new JsonFactory();
+
+	private static final String SOURCE_MONITORING = "monitoring";
+	private static final String SOURCE_BARTERING = "bartering";
+	private static final String SOURCE_AD = "anomaly_detection";
+
 	@Value("${symbIoTe.monitoring.url}")
 	private String monitoringUrl;
 
 	@Value("${symbIoTe.core.bartering.url}")
 	private String coreBarteringUrl;
 
+	@Value("${symbIoTe.monitoring.batch_size:100}")
+	private int monitoringBatchSize;
+
+	@Value("${symbIoTe.trust.circuit_breaker.failure_threshold:5}")
+	private int breakerFailureThreshold;
+
+	@Value("${symbIoTe.trust.circuit_breaker.open_duration:60000}")
+	private long breakerOpenDuration;
+
+	@Value("${symbIoTe.trust.bulkhead.max_concurrent:16}")
+	private int bulkheadMaxConcurrent;
+
+	private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
 	@Autowired
 	private AuthManager authManager;
 
@@ -54,20 +90,23 @@ public class TrustStatsLoader {
 	 * @return returns the availability in range 0 - 1
 	 */
 	public Double getResourceAvailabilityMetrics(String resId) {
-		String url=null;
+		String url = monitoringUrl + "?metric=availability&operation=avg&device=" + resId;
 		try {
-			url = monitoringUrl + "?metric=availability&operation=avg&device=" + resId;
+			return breaker(SOURCE_MONITORING).execute(() -> {
+				ResponseEntity<List<AggregatedMetrics>> resp = restTemplate.exchange(url, HttpMethod.GET,
+						new HttpEntity<>(authManager.generateRequestHeaders()), new ParameterizedTypeReference<List<AggregatedMetrics>>() {
+						});
 
-			ResponseEntity<List<AggregatedMetrics>> resp = restTemplate.exchange(url, HttpMethod.GET, new HttpEntity<>(authManager.generateRequestHeaders()),
-					new ParameterizedTypeReference<List<AggregatedMetrics>>() {
-					});
-
-			if (resp.getStatusCode().equals(HttpStatus.OK) && resp.getBody() != null && !resp.getBody().isEmpty()) {
-				List<AggregatedMetrics> res = resp.getBody();
-				return res.get(0).getStatistics().get("avg");
-			} else {
-				logger.warn("Invalid response received: ", resp);
-			}
+				if (resp.getStatusCode().equals(HttpStatus.OK) && resp.getBody() != null && !resp.getBody().isEmpty()) {
+					List<AggregatedMetrics> res = resp.getBody();
+					return res.get(0).getStatistics().get("avg");
+				} else {
+					logger.warn("Invalid response received: ", resp);
+				}
+				return null;
+			});
+		} catch (CircuitBreaker.CallRejectedException e) {
+			logger.warn("Fetching stats from Monitoring skipped: {}", e.getMessage());
 		} catch (Exception e) {
 			logger.warn("Fetching stats from Monitoring failed");
 			logger.warn("The URL used was {}", url);
@@ -77,6 +116,64 @@ public class TrustStatsLoader {
 		return null;
 	}
 
+	/**
+	 * Fetch resource availability stats for multiple resources. The resource IDs are requested in chunks of symbIoTe.monitoring.batch_size devices
+	 * per request.
+	 * 
+	 * @param resIds
+	 *            internal resource IDs
+	 * @return map of resource ID to availability in range 0 - 1 or null if no stats are available. Resources of requests rejected by the circuit
+	 *         breaker are not contained, their stats are unknown.
+	 */
+	public Map<String, Double> getResourceAvailabilityMetrics(Collection<String> resIds) {
+		Map<String, Double> availabilities = new HashMap<>();
+		List<String> ids = new ArrayList<>(resIds);
+		int batchSize = Math.max(1, monitoringBatchSize);
+
+		for (int i = 0; i < ids.size(); i += batchSize) {
+			List<String> chunk = ids.subList(i, Math.min(i + batchSize, ids.size()));
+			availabilities.putAll(fetchAvailabilityChunk(chunk));
+		}
+
+		return availabilities;
+	}
+
+	private Map<String, Double> fetchAvailabilityChunk(List<String> resIds) {
+		Map<String, Double> availabilities = new HashMap<>();
+		StringBuilder url = new StringBuilder(monitoringUrl).append("?metric=availability&operation=avg");
+		resIds.forEach(resId -> url.append("&device=").append(resId));
+
+		try {
+			breaker(SOURCE_MONITORING).execute(() -> {
+				ResponseEntity<List<AggregatedMetrics>> resp = restTemplate.exchange(url.toString(), HttpMethod.GET,
+						new HttpEntity<>(authManager.generateRequestHeaders()), new ParameterizedTypeReference<List<AggregatedMetrics>>() {
+						});
+
+				if (resp.getStatusCode().equals(HttpStatus.OK) && resp.getBody() != null) {
+					resp.getBody().forEach(am -> {
+						if (am != null && am.getDeviceId() != null && am.getStatistics() != null && am.getStatistics().get("avg") != null) {
+							availabilities.put(am.getDeviceId(), am.getStatistics().get("avg"));
+						}
+					});
+				} else {
+					logger.warn("Invalid response received: ", resp);
+				}
+				return null;
+			});
+		} catch (CircuitBreaker.CallRejectedException e) {
+			logger.warn("Fetching stats of {} resources from Monitoring skipped: {}", resIds.size(), e.getMessage());
+			return availabilities;
+		} catch (Exception e) {
+			logger.warn("Fetching stats from Monitoring failed");
+			logger.warn("The URL used was {}", url);
+			logger.warn("The exception thrown was:", e);
+		}
+
+		// requested resources without stats
+		resIds.forEach(resId -> availabilities.putIfAbsent(resId, null));
+		return availabilities;
+	}
+
 	/**
 	 * Fetch platform anomaly detection stats.
 	 * 
@@ -86,14 +183,20 @@ public class TrustStatsLoader {
 	 */
 	public Integer getPlatformADStats(String platformId) {
 		try {
-			IComponentSecurityHandler csh = authManager.getSecurityHandler();
-			Map<String, OriginPlatformGroupedPlatformMisdeedsReport> resp = csh.getOriginPlatformGroupedPlatformMisdeedsReports(Optional.of(platformId), null);
+			return breaker(SOURCE_AD).execute(() -> {
+				IComponentSecurityHandler csh = authManager.getSecurityHandler();
+				Map<String, OriginPlatformGroupedPlatformMisdeedsReport> resp = csh.getOriginPlatformGroupedPlatformMisdeedsReports(Optional.of(platformId),
+						null);
 
-			if (resp != null && resp.get(platformId) != null) {
-				return resp.get(platformId).getTotalMisdeeds();
-			} else {
-				logger.warn("Invalid response received: ", resp);
-			}
+				if (resp != null && resp.get(platformId) != null) {
+					return resp.get(platformId).getTotalMisdeeds();
+				} else {
+					logger.warn("Invalid response received: ", resp);
+				}
+				return null;
+			});
+		} catch (CircuitBreaker.CallRejectedException e) {
+			logger.warn("Fetching stats from Core AD skipped: {}", e.getMessage());
 		} catch (Exception e) {
 			logger.warn("Fetching stats from Core AD failed");
 			logger.warn("The platformId was {}", platformId);
@@ -103,6 +206,40 @@ public class TrustStatsLoader {
 		return null;
 	}
 
+	/**
+	 * Fetch anomaly detection stats of all platforms with a single request.
+	 * 
+	 * @return map of platform ID to number of hits or null if failed.
+	 */
+	public Map<String, Integer> getPlatformADStats() {
+		try {
+			return breaker(SOURCE_AD).execute(() -> {
+				IComponentSecurityHandler csh = authManager.getSecurityHandler();
+				Map<String, OriginPlatformGroupedPlatformMisdeedsReport> resp = csh.getOriginPlatformGroupedPlatformMisdeedsReports(Optional.empty(), null);
+
+				if (resp != null) {
+					Map<String, Integer> stats = new HashMap<>();
+					resp.forEach((platformId, report) -> {
+						if (report != null) {
+							stats.put(platformId, report.getTotalMisdeeds());
+						}
+					});
+					return stats;
+				} else {
+					logger.warn("Invalid response received: ", resp);
+				}
+				return null;
+			});
+		} catch (CircuitBreaker.CallRejectedException e) {
+			logger.warn("Fetching stats from Core AD skipped: {}", e.getMessage());
+		} catch (Exception e) {
+			logger.warn("Fetching stats from Core AD failed");
+			logger.warn("The exception thrown was:", e);
+		}
+
+		return null;
+	}
+
 	/**
 	 * Fetch platform bartering stats.
 	 * 
@@ -127,21 +264,34 @@ public class TrustStatsLoader {
 			}
 			
 			header.add("Content-Type", "application/json");
-			
-			
-			ResponseEntity<List<FilterResponse>> resp = restTemplate.exchange(coreBarteringUrl, HttpMethod.POST,
-					new HttpEntity<>(req, header), new ParameterizedTypeReference<List<FilterResponse>>() {
-					});
+			HttpEntity<FilterRequest> request = new HttpEntity<>(req, header);
 
-			if (authManager.verifyResponseHeaders("btm", SecurityConstants.CORE_AAM_INSTANCE_ID, resp.getHeaders())) {
-				if (resp.getStatusCode().equals(HttpStatus.OK) && resp.getBody() != null) {
-					return resp.getBody().size();
+			// the body is written with the JSON converter configured on the RestTemplate
+			RequestCallback requestCallback = clientRequest -> {
+				clientRequest.getHeaders().putAll(request.getHeaders());
+				clientRequest.getHeaders().setAccept(Collections.singletonList(MediaType.APPLICATION_JSON));
+				getJsonConverter().write(request.getBody(), MediaType.APPLICATION_JSON, clientRequest);
+			};
+
+			return breaker(SOURCE_BARTERING).execute(() -> {
+				// only the number of coupon usages is needed, so the response array is counted while streaming instead of being deserialized
+				ResponseEntity<Integer> resp = restTemplate.execute(coreBarteringUrl, HttpMethod.POST, requestCallback,
+						response -> new ResponseEntity<>(response.getStatusCode().equals(HttpStatus.OK) ? countArrayElements(response.getBody()) : null,
+								response.getHeaders(), response.getStatusCode()));
+
+				if (resp != null && authManager.verifyResponseHeaders("btm", SecurityConstants.CORE_AAM_INSTANCE_ID, resp.getHeaders())) {
+					if (resp.getStatusCode().equals(HttpStatus.OK) && resp.getBody() != null) {
+						return resp.getBody();
+					} else {
+						logger.warn("Invalid response received: ", resp);
+					}
 				} else {
-					logger.warn("Invalid response received: ", resp);
+					logger.warn("Response Header verification failed.");
 				}
-			} else {
-				logger.warn("Response Header verification failed.");
-			}
+				return null;
+			});
+		} catch (CircuitBreaker.CallRejectedException e) {
+			logger.warn("Fetching stats from Core Bartering skipped: {}", e.getMessage());
 		} catch (Exception e) {
 			logger.warn("Fetching stats from Core Bartering failed.");
 			logger.warn("The URL used for the request was {}, the platformId was {}, the start date used was {}", coreBarteringUrl, platformId, since);
@@ -150,4 +300,49 @@ public class TrustStatsLoader {
 
 		return null;
 	}
+
+	/**
+	 * Counts the elements of a top level JSON array without materializing them, nested content is skipped.
+	 * 
+	 * @param body
+	 *            response body
+	 * @return number of array elements or null if the body is not a JSON array.
+	 * @throws IOException
+	 *             on read or parse errors
+	 */
+	static Integer countArrayElements(InputStream body) throws IOException {
+		try (JsonParser parser = jsonFactory.createParser(body)) {
+			if (parser.nextToken() != JsonToken.START_ARRAY) {
+				return null;
+			}
+
+			int cnt = 0;
+			JsonToken token;
+			while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+				if (token == null) {
+					throw new JsonParseException(parser, "Unexpected end of array");
+				}
+				parser.skipChildren();
+				cnt++;
+			}
+			return cnt;
+		}
+	}
+
+	private MappingJackson2HttpMessageConverter getJsonConverter() {
+		return restTemplate.getMessageConverters().stream().filter(MappingJackson2HttpMessageConverter.class::isInstance)
+				.map(MappingJackson2HttpMessageConverter.class::cast).findFirst()
+				.orElseThrow(() -> new IllegalStateException("RestTemplate has no JSON message converter"));
+	}
+
+	private CircuitBreaker breaker(String source) {
+		return breakers.computeIfAbsent(source, name -> new CircuitBreaker(name, breakerFailureThreshold, breakerOpenDuration, bulkheadMaxConcurrent));
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		breakers.values().forEach(breaker -> metrics.addAll(breaker.metrics()));
+		return metrics;
+	}
 }
\ No newline at end of file
@@ -0,0 +1,77 @@
+package eu.h2020.symbiote.tm.repositories;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.stereotype.Component;
+
+import eu.h2020.symbiote.cloud.sla.model.Violation;
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
+
+/**
+ * Ensures the indexes required by the trust and SLA violation queries at startup.
+ */
+@Component
+public class MongoIndexInitializer {
+	private static final Logger logger = LoggerFactory.getLogger(MongoIndexInitializer.class);
+
+	private static final long MIN_VIOLATION_TTL = 24 * 60 * 60L;
+
+	@Value("${symbIoTe.trust.sla.violation.ttl:604800}")
+	private long violationTtl;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@PostConstruct
+	public void ensureIndexes() {
+		// trust entry queries: stale entries per type (and platform), entry lookup by resource or platform
+		ensureIndex(TrustEntry.class, new Index().on("type", Direction.ASC).on("lastUpdate", Direction.ASC).named("type_lastUpdate"));
+		ensureIndex(TrustEntry.class, new Index().on("type", Direction.ASC).on("platformId", Direction.ASC).on("lastUpdate", Direction.ASC)
+				.named("type_platformId_lastUpdate"));
+		ensureIndex(TrustEntry.class, new Index().on("resourceId", Direction.ASC).on("type", Direction.ASC).named("resourceId_type"));
+		ensureIndex(TrustEntry.class, new Index().on("platformId", Direction.ASC).on("type", Direction.ASC).named("platformId_type"));
+
+		// violation queries per device and period, violations older than the TTL are removed
+		ensureIndex(Violation.class, new Index().on("deviceId", Direction.ASC).on("date", Direction.ASC).named("deviceId_date"));
+		if (violationTtl < MIN_VIOLATION_TTL) {
+			logger.warn("SLA violation TTL of {}s is shorter than the violation period, using {}s", violationTtl, MIN_VIOLATION_TTL);
+		}
+		ensureIndex(Violation.class, new Index().on("date", Direction.ASC).expire(Math.max(violationTtl, MIN_VIOLATION_TTL)).named("date_ttl"));
+	}
+
+	private void ensureIndex(Class<?> entityClass, Index index) {
+		IndexOperations ops = mongoTemplate.indexOps(entityClass);
+		String name = index.getIndexOptions().get("name").toString();
+		List<String> keys = new ArrayList<>(index.getIndexKeys().keySet());
+
+		try {
+			for (IndexInfo info : ops.getIndexInfo()) {
+				if (name.equals(info.getName())) {
+					List<String> existingKeys = info.getIndexFields().stream().map(IndexField::getKey).collect(Collectors.toList());
+					if (!keys.equals(existingKeys)) {
+						logger.warn("Index {} on {} does not match: expected keys {} but found {}", name, entityClass.getSimpleName(), keys, existingKeys);
+					}
+				}
+			}
+
+			ops.ensureIndex(index);
+			logger.debug("Ensured index {} on {}", name, entityClass.getSimpleName());
+		} catch (Exception e) {
+			logger.warn("Index {} on {} could not be ensured, existing index does not match: {}", name, entityClass.getSimpleName(), e.getMessage());
+		}
+	}
+}
@@ -13,7 +13,7 @@ import eu.h2020.symbiote.cloud.sla.model.Violation;
  * 
  *         MongoDB repository interface for storing SLA violations.
  */
-public interface SLAViolationRepository extends MongoRepository<Violation, String> {
+public interface SLAViolationRepository extends MongoRepository<Violation, String>, SLAViolationRepositoryCustom {
 
 	/**
 	 * @param receivedAfter
@@ -22,6 +22,6 @@ public interface SLAViolationRepository extends MongoRepository<Violation, Strin
 	 *            resource ID / device ID
 	 * @return returns list of Violations
 	 */
-	@Query("{'date': {$lte: ?0}, 'deviceId' : ?1}")
+	@Query("{'date': {$gte: ?0}, 'deviceId' : ?1}")
 	List<Violation> findRecentViolationsByResourceId(Date receivedAfter, String resId);
 }
@@ -0,0 +1,35 @@
+package eu.h2020.symbiote.tm.repositories;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import eu.h2020.symbiote.cloud.sla.model.Violation;
+
+/**
+ * Custom MongoDB operations for SLA violations which are not covered by derived queries.
+ */
+public interface SLAViolationRepositoryCustom {
+	/**
+	 * Counts the violations of all resources grouped by time period with a single aggregation.
+	 * 
+	 * @param receivedAfter
+	 *            since Date
+	 * @param periodMillis
+	 *            length of a period in ms
+	 * @return map of resource ID / device ID to map of period start (ms since epoch) to number of violations. Resources without violations are not
+	 *         contained.
+	 */
+	Map<String, Map<Long, Long>> countRecentViolationsByResourceAndPeriod(Date receivedAfter, long periodMillis);
+
+	/**
+	 * Inserts violations idempotently. The ID of a violation is derived from its device, timestamp and content (SLA term), so redelivered or
+	 * duplicated violations are rejected by the unique _id index. Recently stored violations are skipped without a database write.
+	 * 
+	 * @param violations
+	 *            received violations
+	 * @return newly stored violations
+	 */
+	List<Violation> insertNew(Collection<Violation> violations);
+}
@@ -0,0 +1,159 @@
+package eu.h2020.symbiote.tm.repositories;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.util.DigestUtils;
+
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+import com.mongodb.DBObject;
+
+import eu.h2020.symbiote.cloud.sla.model.Violation;
+
+/**
+ * Aggregation based implementation of {@link SLAViolationRepositoryCustom}.
+ */
+public class SLAViolationRepositoryImpl implements SLAViolationRepositoryCustom {
+	private static final Logger logger = LoggerFactory.getLogger(SLAViolationRepositoryImpl.class);
+
+	private static final int DUPLICATE_KEY = 11000;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Value("${symbIoTe.trust.sla.dedup.cache_size:100000}")
+	private int recentKeysSize;
+
+	// keys of recently stored violations, bounded LRU
+	private final Map<String, Boolean> recentKeys = new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+			return size() > recentKeysSize;
+		}
+	};
+
+	@Override
+	public Map<String, Map<Long, Long>> countRecentViolationsByResourceAndPeriod(Date receivedAfter, long periodMillis) {
+		// period start = millis - millis % periodMillis
+		DBObject millis = new BasicDBObject("$subtract", Arrays.asList("$date", new Date(0)));
+		DBObject periodStart = new BasicDBObject("$subtract", Arrays.asList(millis, new BasicDBObject("$mod", Arrays.asList(millis, periodMillis))));
+
+		List<DBObject> pipeline = Arrays.asList(new BasicDBObject("$match", new BasicDBObject("date", new BasicDBObject("$gte", receivedAfter))),
+				new BasicDBObject("$group", new BasicDBObject("_id", new BasicDBObject("deviceId", "$deviceId").append("period", periodStart)).append("count",
+						new BasicDBObject("$sum", 1))));
+
+		Map<String, Map<Long, Long>> counts = new HashMap<>();
+		try (Cursor cursor = mongoTemplate.getCollection(mongoTemplate.getCollectionName(Violation.class)).aggregate(pipeline,
+				AggregationOptions.builder().outputMode(AggregationOptions.OutputMode.CURSOR).build())) {
+			while (cursor.hasNext()) {
+				DBObject dbo = cursor.next();
+				DBObject id = (DBObject) dbo.get("_id");
+
+				if (id.get("deviceId") != null) {
+					counts.computeIfAbsent(id.get("deviceId").toString(), k -> new HashMap<>()).put(((Number) id.get("period")).longValue(),
+							((Number) dbo.get("count")).longValue());
+				}
+			}
+		}
+
+		return counts;
+	}
+
+	@Override
+	public List<Violation> insertNew(Collection<Violation> violations) {
+		Map<String, Violation> candidates = new LinkedHashMap<>();
+		List<DBObject> documents = new ArrayList<>();
+
+		violations.forEach(violation -> {
+			DBObject dbo = new BasicDBObject();
+			mongoTemplate.getConverter().write(violation, dbo);
+
+			String key = violationKey(dbo);
+			if (!isRecent(key) && !candidates.containsKey(key)) {
+				dbo.put("_id", key);
+				candidates.put(key, violation);
+				documents.add(dbo);
+			}
+		});
+
+		if (documents.isEmpty()) {
+			return new ArrayList<>();
+		}
+
+		List<String> keys = new ArrayList<>(candidates.keySet());
+		Set<String> duplicates = new HashSet<>();
+		Set<String> failed = new HashSet<>();
+
+		BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, Violation.class);
+		documents.forEach(ops::insert);
+		try {
+			ops.execute();
+		} catch (BulkOperationException e) {
+			e.getErrors().forEach(error -> (error.getCode() == DUPLICATE_KEY ? duplicates : failed).add(keys.get(error.getIndex())));
+			if (!failed.isEmpty()) {
+				// stored violations are remembered, the failed ones are rejected as duplicates on redelivery
+				remember(keys.stream().filter(key -> !failed.contains(key)).collect(Collectors.toList()));
+				throw e;
+			}
+		}
+
+		remember(keys);
+		logger.debug("Stored {} SLA violations, skipped {} duplicates", keys.size() - duplicates.size(), violations.size() - keys.size() + duplicates.size());
+
+		List<Violation> inserted = new ArrayList<>();
+		candidates.forEach((key, violation) -> {
+			if (!duplicates.contains(key)) {
+				inserted.add(violation);
+			}
+		});
+		return inserted;
+	}
+
+	/**
+	 * Deterministic violation key: device ID, timestamp and a hash of the remaining content (SLA term, values).
+	 */
+	private String violationKey(DBObject dbo) {
+		BasicDBObject content = new BasicDBObject(dbo.toMap());
+		content.removeField("_id");
+		content.removeField("_class");
+
+		Object date = dbo.get("date");
+		return dbo.get("deviceId") + "_" + (date instanceof Date ? ((Date) date).getTime() : date) + "_"
+				+ DigestUtils.md5DigestAsHex(content.toString().getBytes(StandardCharsets.UTF_8));
+	}
+
+	private boolean isRecent(String key) {
+		synchronized (recentKeys) {
+			// get (unlike containsKey) counts as access, so redelivered keys stay in the cache
+			return recentKeys.get(key) != null;
+		}
+	}
+
+	private void remember(Collection<String> keys) {
+		synchronized (recentKeys) {
+			keys.forEach(key -> recentKeys.put(key, Boolean.TRUE));
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package eu.h2020.symbiote.tm.repositories;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.DBObject;
+
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
+
+/**
+ * Collects updated trust entries of the trust cycles and writes them as unordered bulk updates. Entries are only updated, never recreated, so
+ * entries deleted in the meantime stay deleted.
+ */
+@Component
+public class TrustBulkWriter {
+	private static final Logger logger = LoggerFactory.getLogger(TrustBulkWriter.class);
+
+	@Value("${symbIoTe.trust.bulk_write.batch_size:500}")
+	private int batchSize;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	private List<PendingWrite> pending = new ArrayList<>();
+
+	/**
+	 * Queues the entry for writing. The pending entries are written as soon as the batch size is reached.
+	 * 
+	 * @param entry
+	 *            updated {@link TrustEntry}
+	 * @return future completed with the entry once it is written, completed exceptionally if the write failed
+	 */
+	public CompletableFuture<TrustEntry> write(TrustEntry entry) {
+		PendingWrite write = new PendingWrite(entry);
+		List<PendingWrite> batch = null;
+
+		synchronized (this) {
+			pending.add(write);
+			if (pending.size() >= batchSize) {
+				batch = drain();
+			}
+		}
+
+		if (batch != null) {
+			execute(batch);
+		}
+
+		return write.future;
+	}
+
+	/**
+	 * Writes all pending entries. Triggered periodically and at the end of each trust cycle.
+	 */
+	@Scheduled(fixedDelayString = "${symbIoTe.trust.bulk_write.flush_interval:5000}")
+	public void flush() {
+		List<PendingWrite> batch;
+
+		synchronized (this) {
+			batch = drain();
+		}
+
+		if (!batch.isEmpty()) {
+			execute(batch);
+		}
+	}
+
+	/**
+	 * Writes the given entries immediately as separate bulk operations of up to symbIoTe.trust.bulk_write.batch_size entries. The pending
+	 * entries of the trust cycles are not flushed, so callers outside the cycles (e.g. listener threads) do not pay for them.
+	 * 
+	 * @param entries
+	 *            updated {@link TrustEntry} objects
+	 * @return futures of the given entries in the same order, already completed, exceptionally if the write failed
+	 */
+	public List<CompletableFuture<TrustEntry>> writeNow(List<TrustEntry> entries) {
+		List<CompletableFuture<TrustEntry>> futures = new ArrayList<>(entries.size());
+		int size = Math.max(1, batchSize);
+
+		for (int i = 0; i < entries.size(); i += size) {
+			List<PendingWrite> batch = new ArrayList<>();
+			entries.subList(i, Math.min(i + size, entries.size())).forEach(entry -> batch.add(new PendingWrite(entry)));
+			execute(batch);
+			batch.forEach(write -> futures.add(write.future));
+		}
+
+		return futures;
+	}
+
+	/**
+	 * Bumps the last update time of the given entries without changing their values.
+	 * 
+	 * @param ids
+	 *            IDs of unchanged trust entries
+	 */
+	public void touch(Collection<String> ids) {
+		if (ids.isEmpty()) {
+			return;
+		}
+
+		try {
+			mongoTemplate.updateMulti(Query.query(Criteria.where("_id").in(ids)), Update.update("lastUpdate", new Date()), TrustEntry.class);
+		} catch (Exception e) {
+			logger.warn("Touching {} trust entries failed", ids.size(), e);
+		}
+	}
+
+	/**
+	 * Writes the given entries immediately as single unordered bulk operation. Entries are upserted with all their fields, insertOnly entries
+	 * are only written if they do not exist yet.
+	 * 
+	 * @param entries
+	 *            {@link TrustEntry} objects to insert or replace
+	 * @param insertOnly
+	 *            {@link TrustEntry} objects to insert if absent
+	 * @throws RuntimeException
+	 *             if the bulk write failed for any entry
+	 */
+	public void upsert(Collection<TrustEntry> entries, Collection<TrustEntry> insertOnly) {
+		if (entries.isEmpty() && insertOnly.isEmpty()) {
+			return;
+		}
+
+		BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, TrustEntry.class);
+		entries.forEach(entry -> ops.upsert(Query.query(Criteria.where("_id").is(entry.getId())), toUpdate(entry)));
+		insertOnly.forEach(entry -> ops.upsert(Query.query(Criteria.where("_id").is(entry.getId())), toInsertUpdate(entry)));
+
+		try {
+			BulkWriteResult result = ops.execute();
+			logger.debug("Bulk upsert of {} trust entries: {} updated, {} inserted", entries.size() + insertOnly.size(), result.getMatchedCount(),
+					result.getUpserts().size());
+		} catch (RuntimeException e) {
+			logger.warn("Bulk upsert of {} trust entries failed", entries.size() + insertOnly.size(), e);
+			throw e;
+		}
+	}
+
+	private List<PendingWrite> drain() {
+		List<PendingWrite> batch = pending;
+		pending = new ArrayList<>();
+		return batch;
+	}
+
+	private void execute(List<PendingWrite> batch) {
+		BulkOperations ops = mongoTemplate.bulkOps(BulkMode.UNORDERED, TrustEntry.class);
+		// cycle results belong to existing entries -> no upsert, deleted entries must not come back
+		batch.forEach(write -> ops.updateOne(Query.query(Criteria.where("_id").is(write.entry.getId())), toUpdate(write.entry)));
+
+		Map<Integer, BulkWriteError> errors = new HashMap<>();
+		RuntimeException failure = null;
+		try {
+			BulkWriteResult result = ops.execute();
+			logger.debug("Bulk write of {} trust entries: {} updated", batch.size(), result.getMatchedCount());
+		} catch (BulkOperationException e) {
+			failure = e;
+			e.getErrors().forEach(error -> errors.put(error.getIndex(), error));
+		} catch (RuntimeException e) {
+			failure = e;
+			logger.warn("Bulk write of {} trust entries failed", batch.size(), e);
+		}
+
+		for (int i = 0; i < batch.size(); i++) {
+			PendingWrite write = batch.get(i);
+			if (failure == null || (failure instanceof BulkOperationException && !errors.containsKey(i))) {
+				write.future.complete(write.entry);
+			} else {
+				if (errors.containsKey(i)) {
+					logger.warn("Writing trust entry {} failed: {}", write.entry.getId(), errors.get(i).getMessage());
+				}
+				write.future.completeExceptionally(failure);
+			}
+		}
+	}
+
+	private Update toUpdate(TrustEntry entry) {
+		DBObject dbo = new BasicDBObject();
+		mongoTemplate.getConverter().write(entry, dbo);
+
+		Update update = new Update();
+		dbo.keySet().stream().filter(key -> !"_id".equals(key)).forEach(key -> update.set(key, dbo.get(key)));
+
+		// null values are not written by the converter
+		if (entry.getValue() == null) {
+			update.unset("value");
+		}
+
+		return update;
+	}
+
+	private Update toInsertUpdate(TrustEntry entry) {
+		DBObject dbo = new BasicDBObject();
+		mongoTemplate.getConverter().write(entry, dbo);
+
+		Update update = new Update();
+		dbo.keySet().stream().filter(key -> !"_id".equals(key)).forEach(key -> update.setOnInsert(key, dbo.get(key)));
+		return update;
+	}
+
+	private static class PendingWrite {
+		private final TrustEntry entry;
+		private final CompletableFuture<TrustEntry> future = new CompletableFuture<>();
+
+		private PendingWrite(TrustEntry entry) {
+			this.entry = entry;
+		}
+	}
+}
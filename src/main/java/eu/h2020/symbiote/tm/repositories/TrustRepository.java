@@ -1,5 +1,6 @@
 package eu.h2020.symbiote.tm.repositories;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
@@ -13,7 +14,7 @@ import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
  * 
  *         MongoDB repository interface for trust objects providing CRUD operations.
  */
-public interface TrustRepository extends MongoRepository<TrustEntry, String> {
+public interface TrustRepository extends MongoRepository<TrustEntry, String>, TrustRepositoryCustom {
 	/**
 	 * Find entries for given type and updated after a specific time.
 	 * 
@@ -60,6 +61,36 @@ public interface TrustRepository extends MongoRepository<TrustEntry, String> {
 	@Query("{'platformId' : ?0, 'type' : 'PLATFORM_REPUTATION'}")
 	TrustEntry getPREntryByPlatformId(String platformId);
 
+	/**
+	 * Find resource trust entries for given resource IDs
+	 * 
+	 * @param resIds
+	 *            resource IDs
+	 * @return list of {@link TrustEntry}
+	 */
+	@Query("{'resourceId' : {$in: ?0}, 'type' : 'RESOURCE_TRUST'}")
+	List<TrustEntry> findRTEntriesByResourceIds(Collection<String> resIds);
+
+	/**
+	 * Find platform reputation entries for given platform IDs
+	 * 
+	 * @param platformIds
+	 *            platform IDs
+	 * @return list of {@link TrustEntry}
+	 */
+	@Query("{'platformId' : {$in: ?0}, 'type' : 'PLATFORM_REPUTATION'}")
+	List<TrustEntry> findPREntriesByPlatformIds(Collection<String> platformIds);
+
+	/**
+	 * Find adaptive resource trust entries for given resource IDs
+	 * 
+	 * @param resIds
+	 *            resource IDs
+	 * @return list of {@link TrustEntry}
+	 */
+	@Query("{'resourceId' : {$in: ?0}, 'type' : 'ADAPTIVE_RESOURCE_TRUST'}")
+	List<TrustEntry> findARTEntriesByResourceIds(Collection<String> resIds);
+
 	/**
 	 * Get adaptive resource trust entry by given resource ID
 	 * 
@@ -0,0 +1,62 @@
+package eu.h2020.symbiote.tm.repositories;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.stream.Stream;
+
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
+
+/**
+ * Custom MongoDB operations for trust objects which are not covered by derived queries.
+ */
+public interface TrustRepositoryCustom {
+	/**
+	 * Stream entries for given type and updated after a specific time. The entries are read with a cursor in batches of
+	 * symbIoTe.trust.cursor.batch_size documents. The returned stream has to be closed.
+	 * 
+	 * @param updatedAfter
+	 *            updated after
+	 * @param type
+	 *            {@link TrustEntry.Type}
+	 * @return stream of {@link TrustEntry}
+	 */
+	Stream<TrustEntry> streamEntriesUpdatedAfter(Date updatedAfter, TrustEntry.Type type);
+
+	/**
+	 * Stream entries for given type, platform and updated after a specific time. The entries are read with a cursor in batches of
+	 * symbIoTe.trust.cursor.batch_size documents. The returned stream has to be closed.
+	 * 
+	 * @param updatedAfter
+	 *            updated after
+	 * @param type
+	 *            {@link TrustEntry.Type}
+	 * @param platformId
+	 *            Platform ID
+	 * @return stream of {@link TrustEntry}
+	 */
+	Stream<TrustEntry> streamEntriesUpdatedAfterByPlatform(Date updatedAfter, TrustEntry.Type type, String platformId);
+
+	/**
+	 * Stream entries for given type without value and updated after a specific time. The entries are read with a cursor in batches of
+	 * symbIoTe.trust.cursor.batch_size documents. The returned stream has to be closed.
+	 * 
+	 * @param updatedAfter
+	 *            updated after
+	 * @param type
+	 *            {@link TrustEntry.Type}
+	 * @return stream of {@link TrustEntry}
+	 */
+	Stream<TrustEntry> streamEntriesWithoutValueUpdatedAfter(Date updatedAfter, TrustEntry.Type type);
+
+	/**
+	 * Stream all entries for given type of the given platforms. The entries are read with a cursor in batches of symbIoTe.trust.cursor.batch_size
+	 * documents. The returned stream has to be closed.
+	 * 
+	 * @param platformIds
+	 *            Platform IDs
+	 * @param type
+	 *            {@link TrustEntry.Type}
+	 * @return stream of {@link TrustEntry}
+	 */
+	Stream<TrustEntry> streamEntriesByPlatforms(Collection<String> platformIds, TrustEntry.Type type);
+}
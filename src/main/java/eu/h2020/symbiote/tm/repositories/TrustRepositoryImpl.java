@@ -0,0 +1,57 @@
+package eu.h2020.symbiote.tm.repositories;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
+
+/**
+ * Cursor based implementation of {@link TrustRepositoryCustom}.
+ */
+public class TrustRepositoryImpl implements TrustRepositoryCustom {
+
+	@Value("${symbIoTe.trust.cursor.batch_size:500}")
+	private int cursorBatchSize;
+
+	@Autowired
+	private MongoTemplate mongoTemplate;
+
+	@Override
+	public Stream<TrustEntry> streamEntriesUpdatedAfter(Date updatedAfter, TrustEntry.Type type) {
+		return stream(new BasicDBObject("lastUpdate", new BasicDBObject("$lte", updatedAfter)).append("type", type.name()));
+	}
+
+	@Override
+	public Stream<TrustEntry> streamEntriesUpdatedAfterByPlatform(Date updatedAfter, TrustEntry.Type type, String platformId) {
+		return stream(new BasicDBObject("lastUpdate", new BasicDBObject("$lte", updatedAfter)).append("type", type.name()).append("platformId", platformId));
+	}
+
+	@Override
+	public Stream<TrustEntry> streamEntriesWithoutValueUpdatedAfter(Date updatedAfter, TrustEntry.Type type) {
+		return stream(new BasicDBObject("lastUpdate", new BasicDBObject("$lte", updatedAfter)).append("type", type.name()).append("value", null));
+	}
+
+	@Override
+	public Stream<TrustEntry> streamEntriesByPlatforms(Collection<String> platformIds, TrustEntry.Type type) {
+		return stream(new BasicDBObject("platformId", new BasicDBObject("$in", platformIds)).append("type", type.name()));
+	}
+
+	private Stream<TrustEntry> stream(DBObject query) {
+		DBCursor cursor = mongoTemplate.getCollection(mongoTemplate.getCollectionName(TrustEntry.class)).find(query).batchSize(cursorBatchSize);
+
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor, Spliterator.ORDERED | Spliterator.NONNULL), false)
+				.map(dbo -> mongoTemplate.getConverter().read(TrustEntry.class, dbo)).onClose(cursor::close);
+	}
+}
@@ -0,0 +1,195 @@
+package eu.h2020.symbiote.tm.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry.Type;
+import eu.h2020.symbiote.tm.repositories.TrustBulkWriter;
+import eu.h2020.symbiote.tm.repositories.TrustRepository;
+
+/**
+ * Recomputes adaptive resource trust entries depending on changed resource trust or platform reputation values.
+ */
+@Service
+public class AdaptiveResourceTrustUpdater {
+	private static final Logger logger = LoggerFactory.getLogger(AdaptiveResourceTrustUpdater.class);
+
+	@Value("${symbIoTe.trust.adaptive_resource_trust.incremental:false}")
+	private boolean incremental;
+
+	@Value("${symbIoTe.trust.resource_trust.chunk_size:100}")
+	private int chunkSize;
+
+	@Autowired
+	private TrustCalculationService trustService;
+
+	@Autowired
+	private TrustAMQPService amqpService;
+
+	@Autowired
+	private TrustRepository trustRepository;
+
+	@Autowired
+	private TrustBulkWriter trustBulkWriter;
+
+	@Autowired
+	private TrustPublishPolicy publishPolicy;
+
+	// ART averages over its previous value, entries whose last recomputation changed the value have not reached their target yet
+	private final Set<String> unconvergedResIds = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * @return true if adaptive resource trust entries are recomputed on changes of their inputs
+	 */
+	public boolean isIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Recomputes the adaptive resource trust entries of the given resources after their resource trust changed.
+	 * 
+	 * @param resIds
+	 *            symbIoTe IDs of resources with changed resource trust
+	 */
+	public void resourceTrustChanged(Collection<String> resIds) {
+		if (!incremental || resIds == null || resIds.isEmpty()) {
+			return;
+		}
+
+		// called on listener threads -> each chunk is written on its own instead of flushing the entries pending from the trust cycles
+		Map<String, TrustEntry> prEntries = new HashMap<>();
+		int cnt = forEachChunk(resIds.iterator(),
+				chunk -> updateEntries(trustRepository.findARTEntriesByResourceIds(chunk), prEntries, trustBulkWriter::writeNow));
+		amqpService.flushBatches();
+
+		logger.debug("Adaptive Resource Trust update triggered for {} changed resource trust entries", cnt);
+	}
+
+	/**
+	 * Recomputes the adaptive resource trust entries of all resources of the given platforms after their platform reputation changed.
+	 * 
+	 * @param changedPrEntries
+	 *            changed platform reputation entries
+	 */
+	public void platformReputationChanged(Collection<TrustEntry> changedPrEntries) {
+		if (!incremental || changedPrEntries == null || changedPrEntries.isEmpty()) {
+			return;
+		}
+
+		// use the new values, even if not yet written
+		Map<String, TrustEntry> prEntries = new HashMap<>();
+		changedPrEntries.forEach(entry -> prEntries.put(entry.getPlatformId(), entry));
+
+		try (Stream<TrustEntry> entries = trustRepository.streamEntriesByPlatforms(prEntries.keySet(), Type.ADAPTIVE_RESOURCE_TRUST)) {
+			int cnt = forEachChunk(entries.iterator(), chunk -> updateEntries(chunk, prEntries));
+			logger.debug("Adaptive Resource Trust update triggered for {} entries of {} changed platforms", cnt, prEntries.size());
+		}
+		trustBulkWriter.flush();
+		amqpService.flushBatches();
+	}
+
+	/**
+	 * Recomputes the adaptive resource trust entries which have not converged yet, one step per call. Only used in incremental mode, otherwise
+	 * the cycle recomputes all entries anyway.
+	 * 
+	 * @param prEntries
+	 *            platform reputation entries by platform ID, shared by all chunks of an update cycle
+	 * @return number of recomputed entries
+	 */
+	public int updateUnconverged(Map<String, TrustEntry> prEntries) {
+		List<String> resIds = new ArrayList<>(unconvergedResIds);
+		// entries still moving are added again by updateEntries, deleted entries are dropped
+		unconvergedResIds.removeAll(resIds);
+
+		return forEachChunk(resIds.iterator(), chunk -> updateEntries(trustRepository.findARTEntriesByResourceIds(chunk), prEntries));
+	}
+
+	/**
+	 * Recomputes, stores and publishes the given adaptive resource trust entries.
+	 * 
+	 * @param artEntries
+	 *            adaptive resource trust entries
+	 * @param prEntries
+	 *            platform reputation entries by platform ID, shared by all chunks of an update cycle
+	 */
+	public void updateEntries(List<TrustEntry> artEntries, Map<String, TrustEntry> prEntries) {
+		updateEntries(artEntries, prEntries, entries -> entries.stream().map(trustBulkWriter::write).collect(Collectors.toList()));
+	}
+
+	private void updateEntries(List<TrustEntry> artEntries, Map<String, TrustEntry> prEntries,
+			Function<List<TrustEntry>, List<CompletableFuture<TrustEntry>>> writer) {
+		if (artEntries.isEmpty()) {
+			return;
+		}
+
+		Map<String, Double> artValues = trustService.calcAdaptiveResourceTrust(artEntries, prEntries);
+
+		List<Double> curVals = new ArrayList<>(artEntries.size());
+		artEntries.forEach(entry -> {
+			Double curVal = entry.getValue();
+			curVals.add(curVal);
+
+			entry.updateEntry(artValues.get(entry.getResourceId()));
+
+			if (incremental) {
+				trackConvergence(entry.getResourceId(), curVal, entry.getValue());
+			}
+		});
+
+		// published only once the value is stored
+		List<CompletableFuture<TrustEntry>> writes = writer.apply(artEntries);
+		for (int i = 0; i < writes.size(); i++) {
+			Double curVal = curVals.get(i);
+			writes.get(i).thenAccept(written -> {
+				if (publishPolicy.shouldPublish(written, curVal)) {
+					amqpService.publishAdaptiveResourceTrustUpdate(written);
+					logger.debug("Adaptive Resource Trust for resource {} updated: {} to {}", written.getResourceId(), curVal, written.getValue());
+				}
+			});
+		}
+	}
+
+	private void trackConvergence(String resId, Double curVal, Double newVal) {
+		if (newVal != null && !newVal.equals(curVal)) {
+			unconvergedResIds.add(resId);
+		} else {
+			unconvergedResIds.remove(resId);
+		}
+	}
+
+	private <T> int forEachChunk(Iterator<T> it, Consumer<List<T>> task) {
+		int size = Math.max(1, chunkSize);
+		int cnt = 0;
+
+		List<T> chunk = new ArrayList<>(size);
+		while (it.hasNext()) {
+			chunk.add(it.next());
+			cnt++;
+
+			if (chunk.size() >= size || !it.hasNext()) {
+				task.accept(chunk);
+				chunk = new ArrayList<>(size);
+			}
+		}
+
+		return cnt;
+	}
+}
@@ -0,0 +1,131 @@
+package eu.h2020.symbiote.tm.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+import eu.h2020.symbiote.cloud.federation.model.FederationHistory;
+
+/**
+ * Size bounded TTL cache for the federation history of platforms. Entries are invalidated on federation events of their platform. Each
+ * invalidation starts a new generation, histories requested before it are not cached when their reply arrives afterwards.
+ */
+@Component
+public class FederationHistoryCache implements PublicMetrics {
+
+	private final long ttl;
+
+	private final Map<String, CacheEntry> entries;
+
+	private long generation;
+
+	private final AtomicLong hits = new AtomicLong();
+
+	private final AtomicLong misses = new AtomicLong();
+
+	@Autowired
+	public FederationHistoryCache(@Value("${symbIoTe.trust.federation_history.cache.ttl:3600000}") long ttl,
+			@Value("${symbIoTe.trust.federation_history.cache.max_size:1000}") int maxSize) {
+		this.ttl = ttl;
+		this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**
+	 * Returns the cached federation history.
+	 * 
+	 * @param platformId
+	 *            platform ID
+	 * @return List of FederationHistory entries or null if not cached or expired.
+	 */
+	public synchronized List<FederationHistory> get(String platformId) {
+		CacheEntry entry = entries.get(platformId);
+
+		if (entry != null && entry.expiresAt > System.currentTimeMillis()) {
+			hits.incrementAndGet();
+			return entry.history;
+		}
+
+		if (entry != null) {
+			entries.remove(platformId);
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Returns the current generation, to be taken before the federation history is requested.
+	 * 
+	 * @return generation passed to {@link #put(String, List, long)}
+	 */
+	public synchronized long generation() {
+		return generation;
+	}
+
+	/**
+	 * Caches federation history of given platform unless the cache was invalidated since it was requested.
+	 * 
+	 * @param platformId
+	 *            platform ID
+	 * @param history
+	 *            List of FederationHistory entries
+	 * @param requestGeneration
+	 *            generation taken before the history was requested
+	 * @return true if cached, false if discarded as possibly stale
+	 */
+	public synchronized boolean put(String platformId, List<FederationHistory> history, long requestGeneration) {
+		if (requestGeneration != generation) {
+			return false;
+		}
+		entries.put(platformId, new CacheEntry(history, System.currentTimeMillis() + ttl));
+		return true;
+	}
+
+	/**
+	 * Removes the cached federation history of given platforms.
+	 * 
+	 * @param platformIds
+	 *            platform IDs
+	 */
+	public synchronized void invalidate(Collection<String> platformIds) {
+		platformIds.forEach(entries::remove);
+		// replies still in flight may predate the federation change
+		generation++;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		metrics.add(new Metric<>("trust.federation_history.cache.hits", hits.get()));
+		metrics.add(new Metric<>("trust.federation_history.cache.misses", misses.get()));
+		synchronized (this) {
+			metrics.add(new Metric<>("trust.federation_history.cache.size", entries.size()));
+		}
+		return metrics;
+	}
+
+	private static class CacheEntry {
+		private final List<FederationHistory> history;
+		private final long expiresAt;
+
+		CacheEntry(List<FederationHistory> history, long expiresAt) {
+			this.history = history;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package eu.h2020.symbiote.tm.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
+import eu.h2020.symbiote.tm.repositories.TrustBulkWriter;
+import eu.h2020.symbiote.tm.repositories.TrustRepository;
+
+/**
+ * Calculates the resource trust of newly registered own resources and of resources with fresh SLA violations right away instead of waiting
+ * for the next resource trust cycle. New resources are processed before violated ones; the periodic cycle keeps updating all entries.
+ * Resources whose Monitoring requests were rejected by the shared circuit breaker / bulkhead are queued again for the next run.
+ */
+@Component
+public class ResourceTrustFastLane implements PublicMetrics {
+	private static final Logger logger = LoggerFactory.getLogger(ResourceTrustFastLane.class);
+
+	@Value("${symbIoTe.trust.resource_trust.fast_lane.enabled:true}")
+	private boolean enabled;
+
+	@Value("${symbIoTe.trust.resource_trust.fast_lane.batch_size:100}")
+	private int batchSize;
+
+	@Value("${platform.id}")
+	private String ownPlatformId;
+
+	@Autowired
+	private TrustCalculationService trustService;
+
+	@Autowired
+	private TrustRepository trustRepository;
+
+	@Autowired
+	private TrustBulkWriter trustBulkWriter;
+
+	@Autowired
+	private TrustPublishPolicy publishPolicy;
+
+	@Autowired
+	private TrustAMQPService amqpService;
+
+	@Autowired
+	private ResourceTrustFingerprints fingerprints;
+
+	private final Set<String> newResIds = ConcurrentHashMap.newKeySet();
+
+	private final Set<String> violatedResIds = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Queues newly registered own resources with high priority.
+	 *
+	 * @param resIds
+	 *            internal resource IDs
+	 */
+	public void resourcesAdded(Collection<String> resIds) {
+		if (enabled) {
+			resIds.stream().filter(Objects::nonNull).forEach(newResIds::add);
+		}
+	}
+
+	/**
+	 * Queues resources with newly stored SLA violations.
+	 *
+	 * @param resIds
+	 *            internal resource IDs
+	 */
+	public void violationsReceived(Collection<String> resIds) {
+		if (enabled) {
+			resIds.stream().filter(Objects::nonNull).forEach(violatedResIds::add);
+		}
+	}
+
+	/**
+	 * Calculates the resource trust of all queued resources. Triggered every symbIoTe.trust.resource_trust.fast_lane.interval ms.
+	 */
+	@Scheduled(fixedDelayString = "${symbIoTe.trust.resource_trust.fast_lane.interval:1000}")
+	public void process() {
+		// new resources first, a resource queued twice is calculated once
+		Set<String> added = new LinkedHashSet<>(drain(newResIds));
+		Set<String> resIds = new LinkedHashSet<>(added);
+		resIds.addAll(drain(violatedResIds));
+
+		if (resIds.isEmpty()) {
+			return;
+		}
+
+		List<String> chunk = new ArrayList<>(batchSize);
+		for (String resId : resIds) {
+			chunk.add(resId);
+			if (chunk.size() >= batchSize) {
+				updateResourceTrust(chunk, added);
+				chunk = new ArrayList<>(batchSize);
+			}
+		}
+		if (!chunk.isEmpty()) {
+			updateResourceTrust(chunk, added);
+		}
+
+		trustBulkWriter.flush();
+		amqpService.flushBatches();
+		logger.debug("Resource Trust fast lane processed {} resources", resIds.size());
+	}
+
+	private void updateResourceTrust(List<String> resIds, Set<String> added) {
+		try {
+			// entries deleted in the meantime or of foreign resources are skipped
+			List<TrustEntry> entries = trustRepository.findRTEntriesByResourceIds(resIds).stream()
+					.filter(entry -> ownPlatformId.equals(entry.getPlatformId())).collect(Collectors.toList());
+			if (entries.isEmpty()) {
+				return;
+			}
+
+			// shares the fingerprints with the periodic cycle, so it does not recalculate the same inputs again
+			List<String> skipped = new ArrayList<>();
+			Map<String, Double> rtValues = trustService.calcChangedResourceTrust(entries.stream().map(TrustEntry::getResourceId).collect(Collectors.toList()),
+					skipped);
+
+			// rejected by the Monitoring bulkhead shared with the periodic cycle -> retried next run with the same priority
+			skipped.forEach(resId -> (added.contains(resId) ? newResIds : violatedResIds).add(resId));
+			if (!skipped.isEmpty()) {
+				logger.debug("Resource Trust fast lane requeued {} resources without stats", skipped.size());
+			}
+
+			entries.stream().filter(entry -> rtValues.containsKey(entry.getResourceId())).forEach(entry -> {
+				Double curVal = entry.getValue();
+
+				entry.updateEntry(rtValues.get(entry.getResourceId()));
+
+				// published only once the value is stored, inputs of failed writes are discarded to recalculate them next cycle
+				trustBulkWriter.write(entry).whenComplete((written, e) -> {
+					if (e != null) {
+						fingerprints.remove(Collections.singletonList(entry.getResourceId()));
+					} else if (publishPolicy.shouldPublish(written, curVal)) {
+						amqpService.publishResourceTrustUpdate(written);
+						logger.debug("Resource Trust for resource {} updated: {} to {}", written.getResourceId(), curVal, written.getValue());
+					}
+				});
+			});
+		} catch (Exception e) {
+			// the periodic cycle picks the resources up again
+			logger.warn("Resource Trust fast lane update of {} resources failed", resIds.size(), e);
+		}
+	}
+
+	private List<String> drain(Set<String> queue) {
+		List<String> drained = new ArrayList<>();
+		for (String resId : queue) {
+			if (queue.remove(resId)) {
+				drained.add(resId);
+			}
+		}
+		return drained;
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		return Arrays.asList(new Metric<>("trust.resource_trust.fast_lane.new", newResIds.size()),
+				new Metric<>("trust.resource_trust.fast_lane.violated", violatedResIds.size()));
+	}
+}
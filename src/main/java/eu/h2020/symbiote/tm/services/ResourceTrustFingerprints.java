@@ -0,0 +1,75 @@
+package eu.h2020.symbiote.tm.services;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps the inputs of the last resource trust calculation per resource to detect resources whose inputs did not change.
+ */
+@Component
+public class ResourceTrustFingerprints {
+
+	private final Map<String, Fingerprint> fingerprints = new ConcurrentHashMap<>();
+
+	/**
+	 * Records the inputs of a resource trust calculation.
+	 * 
+	 * @param resId
+	 *            internal resource ID
+	 * @param availScore
+	 *            average availability
+	 * @param violationCnt
+	 *            number of recent SLA violations
+	 * @return true if the inputs differ from the last recorded ones or no inputs are recorded yet.
+	 */
+	public boolean update(String resId, Double availScore, long violationCnt) {
+		Fingerprint fp = new Fingerprint(availScore, violationCnt);
+		return !fp.equals(fingerprints.put(resId, fp));
+	}
+
+	/**
+	 * Removes the recorded inputs of the given resources, e.g. as they are no longer shared.
+	 * 
+	 * @param resIds
+	 *            internal resource IDs
+	 */
+	public void remove(Collection<String> resIds) {
+		resIds.forEach(fingerprints::remove);
+	}
+
+	/**
+	 * @return number of resources with recorded inputs
+	 */
+	public int size() {
+		return fingerprints.size();
+	}
+
+	private static class Fingerprint {
+		private final Double availScore;
+		private final long violationCnt;
+
+		private Fingerprint(Double availScore, long violationCnt) {
+			this.availScore = availScore;
+			this.violationCnt = violationCnt;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Fingerprint)) {
+				return false;
+			}
+
+			Fingerprint other = (Fingerprint) obj;
+			return violationCnt == other.violationCnt && Objects.equals(availScore, other.availScore);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(availScore, violationCnt);
+		}
+	}
+}
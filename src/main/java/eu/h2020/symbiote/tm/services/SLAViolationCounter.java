@@ -0,0 +1,146 @@
+package eu.h2020.symbiote.tm.services;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import eu.h2020.symbiote.cloud.sla.model.Violation;
+import eu.h2020.symbiote.tm.repositories.SLAViolationRepository;
+
+/**
+ * Keeps the number of SLA violations of the last 24h per resource in memory. Each resource has a ring buffer of time buckets which is updated
+ * by the SLA violation listener and rebuilt from the violation repository at startup.
+ */
+@Service
+public class SLAViolationCounter {
+	private static final Logger logger = LoggerFactory.getLogger(SLAViolationCounter.class);
+
+	private static final long WINDOW_MILLIS = 24 * 60 * 60 * 1000L;
+
+	private final SLAViolationRepository violationRepository;
+
+	private final int bucketCount;
+
+	private final long bucketMillis;
+
+	private final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+	@Autowired
+	public SLAViolationCounter(SLAViolationRepository violationRepository, @Value("${symbIoTe.trust.sla.window.buckets:24}") int bucketCount) {
+		this.violationRepository = violationRepository;
+		this.bucketCount = Math.max(1, bucketCount);
+		this.bucketMillis = WINDOW_MILLIS / this.bucketCount;
+	}
+
+	/**
+	 * Rebuilds the counters from the violations stored within the last 24h.
+	 */
+	@PostConstruct
+	public void init() {
+		Calendar receivedAfter = Calendar.getInstance();
+		receivedAfter.add(Calendar.HOUR, -24);
+
+		Map<String, Map<Long, Long>> counts = violationRepository.countRecentViolationsByResourceAndPeriod(receivedAfter.getTime(), bucketMillis);
+		windows.clear();
+		counts.forEach((resId, periods) -> periods.forEach((periodStart, cnt) -> add(resId, periodStart / bucketMillis, cnt)));
+
+		logger.info("SLA violation counters rebuilt for {} resources", windows.size());
+	}
+
+	/**
+	 * Adds violation to the counter of its resource.
+	 * 
+	 * @param violation
+	 *            received {@link Violation}
+	 */
+	public void record(Violation violation) {
+		if (violation != null && violation.getDeviceId() != null) {
+			Date date = violation.getDate() != null ? violation.getDate() : new Date();
+			add(violation.getDeviceId(), date.getTime() / bucketMillis, 1);
+		}
+	}
+
+	/**
+	 * Returns the number of violations of the last 24h.
+	 * 
+	 * @param resId
+	 *            resource ID / device ID
+	 * @return number of violations
+	 */
+	public long countRecent(String resId) {
+		long oldest = currentPeriod() - bucketCount + 1;
+		long[] cnt = { 0 };
+
+		// drop windows without recent violations
+		windows.computeIfPresent(resId, (k, w) -> {
+			cnt[0] = w.sum(oldest);
+			return cnt[0] > 0 ? w : null;
+		});
+
+		return cnt[0];
+	}
+
+	private void add(String resId, long period, long cnt) {
+		long current = currentPeriod();
+		if (period <= current - bucketCount) {
+			return;
+		}
+
+		windows.compute(resId, (k, w) -> {
+			Window window = w != null ? w : new Window(bucketCount);
+			window.add(Math.min(period, current), cnt);
+			return window;
+		});
+	}
+
+	private long currentPeriod() {
+		return System.currentTimeMillis() / bucketMillis;
+	}
+
+	/**
+	 * Ring buffer of violation counts. Each slot holds the count of one period, slots of older periods are reused.
+	 */
+	private static class Window {
+		private final long[] periods;
+		private final long[] counts;
+
+		Window(int size) {
+			periods = new long[size];
+			counts = new long[size];
+			Arrays.fill(periods, -1);
+		}
+
+		void add(long period, long cnt) {
+			int idx = (int) (period % periods.length);
+			if (periods[idx] != period) {
+				if (periods[idx] > period) {
+					// slot already used by a newer period
+					return;
+				}
+				periods[idx] = period;
+				counts[idx] = 0;
+			}
+			counts[idx] += cnt;
+		}
+
+		long sum(long oldestPeriod) {
+			long sum = 0;
+			for (int i = 0; i < periods.length; i++) {
+				if (periods[i] >= oldestPeriod) {
+					sum += counts[i];
+				}
+			}
+			return sum;
+		}
+	}
+}
@@ -1,16 +1,28 @@
 package eu.h2020.symbiote.tm.services;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.lang.builder.ReflectionToStringBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate.RabbitConverterFuture;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import eu.h2020.symbiote.cloud.federation.model.FederationHistory;
@@ -25,7 +37,7 @@ import eu.h2020.symbiote.util.RabbitConstants;
  *
  */
 @Service
-public class TrustAMQPService {
+public class TrustAMQPService implements PublicMetrics {
 	private static final Logger logger = LoggerFactory.getLogger(TrustAMQPService.class);
 
 	@Value("${" + RabbitConstants.ROUTING_KEY_TRUST_RESOURCE_UPDATED + "}")
@@ -37,15 +49,42 @@ public class TrustAMQPService {
 	@Value("${" + RabbitConstants.ROUTING_KEY_TRUST_ADAPTIVE_RESOURCE_UPDATED + "}")
 	private String routingKeyAdaptiveResTrustUpdated;
 
+	@Value("${symbIoTe.trust.publish.batch.enabled:false}")
+	private boolean batchEnabled;
+
+	@Value("${symbIoTe.trust.publish.batch.size:100}")
+	private int batchSize;
+
+	@Value("${symbIoTe.trust.publish.batch.single_messages:true}")
+	private boolean singleMessages;
+
+	@Value("${symbIoTe.trust.publish.conflation.enabled:false}")
+	private boolean conflationEnabled;
+
 	@Autowired
 	private RabbitTemplate template;
 
+	@Autowired
+	private AsyncRabbitTemplate asyncTemplate;
+
 	@Autowired
 	private Queue federationHistoryQueue;
 
 	@Autowired
 	private TopicExchange trustTopic;
 
+	@Autowired
+	private TopicExchange trustBatchTopic;
+
+	@Autowired
+	private FederationHistoryCache federationHistoryCache;
+
+	private final Map<String, List<TrustEntry>> pendingBatches = new HashMap<>();
+
+	private final Map<String, ConflatedUpdate> conflatedUpdates = new LinkedHashMap<>();
+
+	private final AtomicLong conflatedCnt = new AtomicLong();
+
 	/**
 	 * Publish updated Resource Trust entry to topic.
 	 * 
@@ -77,13 +116,100 @@ public class TrustAMQPService {
 	}
 
 	private void send(String routingKey, TrustEntry trustObj) {
+		if (conflationEnabled) {
+			// only the latest update per entry within the conflation window is published
+			synchronized (conflatedUpdates) {
+				if (conflatedUpdates.put(trustObj.getId(), new ConflatedUpdate(routingKey, trustObj)) != null) {
+					conflatedCnt.incrementAndGet();
+				}
+			}
+			return;
+		}
+
+		publish(routingKey, trustObj);
+	}
+
+	/**
+	 * Publishes the latest update of each entry collected within the conflation window.
+	 */
+	@Scheduled(fixedDelayString = "${symbIoTe.trust.publish.conflation.window:1000}")
+	public void flushConflated() {
+		List<ConflatedUpdate> updates;
+
+		synchronized (conflatedUpdates) {
+			if (conflatedUpdates.isEmpty()) {
+				return;
+			}
+			updates = new ArrayList<>(conflatedUpdates.values());
+			conflatedUpdates.clear();
+		}
+
+		updates.forEach(update -> publish(update.routingKey, update.trustObj));
+	}
+
+	/**
+	 * @return number of updates replaced by a newer update of the same entry within the conflation window
+	 */
+	@Override
+	public Collection<Metric<?>> metrics() {
+		return Collections.singletonList(new Metric<>("trust.publish.conflated", conflatedCnt.get()));
+	}
+
+	private void publish(String routingKey, TrustEntry trustObj) {
 		logger.debug("Message published with routingkey {}. Type: {}, PlatformId: {}, ResourceId: {}, value: {}", routingKey, trustObj.getType(),
 				trustObj.getPlatformId(), trustObj.getResourceId(), trustObj.getValue());
-		template.convertAndSend(trustTopic.getName(), routingKey, trustObj);
+
+		// single entry messages for consumers not bound to the batch routing keys
+		if (!batchEnabled || singleMessages) {
+			template.convertAndSend(trustTopic.getName(), routingKey, trustObj);
+		}
+
+		if (batchEnabled) {
+			List<TrustEntry> batch = null;
+
+			synchronized (pendingBatches) {
+				List<TrustEntry> pending = pendingBatches.computeIfAbsent(routingKey, key -> new ArrayList<>());
+				pending.add(trustObj);
+				if (pending.size() >= batchSize) {
+					batch = pendingBatches.remove(routingKey);
+				}
+			}
+
+			if (batch != null) {
+				sendBatch(routingKey, batch);
+			}
+		}
+	}
+
+	/**
+	 * Publishes all pending trust entry batches. Triggered periodically and at the end of each trust cycle.
+	 */
+	@Scheduled(fixedDelayString = "${symbIoTe.trust.publish.batch.max_delay:1000}")
+	public void flushBatches() {
+		Map<String, List<TrustEntry>> batches;
+
+		synchronized (pendingBatches) {
+			if (pendingBatches.isEmpty()) {
+				return;
+			}
+			batches = new HashMap<>(pendingBatches);
+			pendingBatches.clear();
+		}
+
+		batches.forEach(this::sendBatch);
 	}
 
 	/**
-	 * Fetch federation history entries for given platform id.
+	 * Batches are published with the routing key of their entries on the batch exchange. Consumers opt in to batches by binding to the batch
+	 * exchange instead of the trust exchange.
+	 */
+	private void sendBatch(String routingKey, List<TrustEntry> batch) {
+		logger.debug("Batch of {} entries published with routingkey {} on {}", batch.size(), routingKey, trustBatchTopic.getName());
+		template.convertAndSend(trustBatchTopic.getName(), routingKey, batch);
+	}
+
+	/**
+	 * Fetch federation history entries for given platform id. Responses are cached until their TTL expires or a federation of the platform changes.
 	 * 
 	 * Returns FederationHistory list or empty list if failed.
 	 * 
@@ -92,16 +218,77 @@ public class TrustAMQPService {
 	 * @return List of FederationHistory entries
 	 */
 	public List<FederationHistory> fetchFederationHistory(String platformId) {
+		List<FederationHistory> cached = federationHistoryCache.get(platformId);
+		if (cached != null) {
+			logger.debug("Fed history for platform {} served from cache", platformId);
+			return cached;
+		}
+
+		long generation = federationHistoryCache.generation();
 		logger.debug("Queried fed history for platform {}", platformId);
-		FederationHistoryResponse r = (FederationHistoryResponse) template.convertSendAndReceive(federationHistoryQueue.getName(), platformId);
+		Object reply = template.convertSendAndReceive(federationHistoryQueue.getName(), platformId);
+
+		return handleFederationHistoryResponse(platformId, reply, generation);
+	}
 
-		if (r != null) {
+	/**
+	 * Fetch federation history entries for given platform id without blocking the calling thread. Requests of multiple platforms can be in flight
+	 * concurrently, responses are cached like with {@link #fetchFederationHistory(String)}.
+	 * 
+	 * The future completes with the FederationHistory list or an empty list if failed or no response was received within
+	 * symbIoTe.trust.federation_history.timeout.
+	 * 
+	 * @param platformId
+	 *            platform id
+	 * @return future of List of FederationHistory entries
+	 */
+	public CompletableFuture<List<FederationHistory>> fetchFederationHistoryAsync(String platformId) {
+		List<FederationHistory> cached = federationHistoryCache.get(platformId);
+		if (cached != null) {
+			logger.debug("Fed history for platform {} served from cache", platformId);
+			return CompletableFuture.completedFuture(cached);
+		}
+
+		CompletableFuture<List<FederationHistory>> result = new CompletableFuture<>();
+		try {
+			// a reply arriving after a federation change of the platform is returned but not cached
+			long generation = federationHistoryCache.generation();
+			logger.debug("Queried fed history asynchronously for platform {}", platformId);
+			RabbitConverterFuture<Object> future = asyncTemplate.convertSendAndReceive(federationHistoryQueue.getName(), platformId);
+			future.addCallback(reply -> result.complete(handleFederationHistoryResponse(platformId, reply, generation)), e -> {
+				logger.warn("Fetching fed history for platform {} failed: {}", platformId, e.getMessage());
+				result.complete(new ArrayList<>());
+			});
+		} catch (Exception e) {
+			logger.warn("Fetching fed history for platform {} failed: {}", platformId, e.getMessage());
+			result.complete(new ArrayList<>());
+		}
+
+		return result;
+	}
+
+	private List<FederationHistory> handleFederationHistoryResponse(String platformId, Object reply, long generation) {
+		if (reply instanceof FederationHistoryResponse) {
+			FederationHistoryResponse r = (FederationHistoryResponse) reply;
 			logger.debug("Received {} history entries for platform {}", r.getEvents().size(), platformId);
 			r.getEvents().forEach(federationHistory -> logger.debug(ReflectionToStringBuilder.toString(federationHistory)));
+			if (!federationHistoryCache.put(platformId, r.getEvents(), generation)) {
+				logger.debug("Fed history for platform {} not cached, federations changed while it was requested", platformId);
+			}
 			return r.getEvents();
 		} else {
-			logger.warn("No history response returned for platform {} - response: {}", platformId, r);
+			logger.warn("No history response returned for platform {} - response: {}", platformId, reply);
 			return new ArrayList<>();
 		}
 	}
+
+	private static class ConflatedUpdate {
+		private final String routingKey;
+		private final TrustEntry trustObj;
+
+		ConflatedUpdate(String routingKey, TrustEntry trustObj) {
+			this.routingKey = routingKey;
+			this.trustObj = trustObj;
+		}
+	}
 }
@@ -1,20 +1,36 @@
 package eu.h2020.symbiote.tm.services;
 
 import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 
 import eu.h2020.symbiote.cloud.federation.model.FederationHistory;
-import eu.h2020.symbiote.cloud.sla.model.Violation;
 import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
 import eu.h2020.symbiote.tm.interfaces.rest.TrustStatsLoader;
-import eu.h2020.symbiote.tm.repositories.SLAViolationRepository;
 import eu.h2020.symbiote.tm.repositories.TrustRepository;
 
 /**
@@ -37,7 +53,19 @@ public class TrustCalculationService {
 	private TrustRepository trustRepository;
 
 	@Autowired
-	private SLAViolationRepository violationRepository;
+	private SLAViolationCounter violationCounter;
+
+	@Autowired
+	private ResourceTrustFingerprints fingerprints;
+
+	@Value("${symbIoTe.trust.resource_trust.dirty_tracking:true}")
+	private boolean dirtyTracking;
+
+	@Autowired
+	private ThreadPoolTaskExecutor reputationSourceExecutor;
+
+	@Value("${symbIoTe.trust.platform_reputation.deadline:15000}")
+	private long reputationDeadline;
 
 	/**
 	 * Calculates resource trust for given internal resource ID.
@@ -47,25 +75,72 @@ public class TrustCalculationService {
 	 * @return resource trust value double value between 0 - 100 or null if not specified.
 	 */
 	public Double calcResourceTrust(String resId) {
-		Double mS = getMonitoringScore(resId);
-		Double rt = mS != null ? mS * calcViolationFactor(resId) : null;
+		return calcResourceTrust(resId, trustStatsLoader.getResourceAvailabilityMetrics(resId));
+	}
 
-		return formatValue(rt);
+	/**
+	 * Calculates resource trust for those of the given internal resources whose inputs (average availability and recent SLA violations) changed
+	 * since their last calculation. If dirty tracking is disabled all resources are calculated. The availability stats are fetched with batched
+	 * Monitoring requests. The inputs are recorded on calculation, callers discard them with {@link ResourceTrustFingerprints#remove(Collection)}
+	 * if the calculated value could not be stored.
+	 * 
+	 * @param resIds
+	 *            internal resource IDs
+	 * @return map of resource ID to resource trust value (double value between 0 - 100 or null if not specified). Resources with unchanged inputs
+	 *         or whose stats could not be requested are not contained, so their current value is kept.
+	 */
+	public Map<String, Double> calcChangedResourceTrust(Collection<String> resIds) {
+		return calcChangedResourceTrust(resIds, new ArrayList<>());
 	}
 
-	private Double getMonitoringScore(String resId) {
-		Double availScore = trustStatsLoader.getResourceAvailabilityMetrics(resId);
-		return availScore != null ? availScore * 100 : null;
+	/**
+	 * Like {@link #calcChangedResourceTrust(Collection)}, additionally reports the resources whose stats could not be requested, so callers can
+	 * retry them.
+	 * 
+	 * @param resIds
+	 *            internal resource IDs
+	 * @param skipped
+	 *            receives the resource IDs whose Monitoring requests were rejected by the circuit breaker or bulkhead
+	 * @return map of resource ID to resource trust value, see {@link #calcChangedResourceTrust(Collection)}
+	 */
+	public Map<String, Double> calcChangedResourceTrust(Collection<String> resIds, Collection<String> skipped) {
+		Map<String, Double> availScores = trustStatsLoader.getResourceAvailabilityMetrics(resIds);
+		Map<String, Double> rtValues = new HashMap<>();
+
+		resIds.forEach(resId -> {
+			// Monitoring call rejected by the circuit breaker -> stats unknown, not missing
+			if (!availScores.containsKey(resId)) {
+				skipped.add(resId);
+				return;
+			}
+
+			Double availScore = availScores.get(resId);
+			long violationCnt = violationCounter.countRecent(resId);
+
+			if (!dirtyTracking || fingerprints.update(resId, availScore, violationCnt)) {
+				rtValues.put(resId, calcResourceTrust(availScore, violationCnt));
+			}
+		});
+
+		return rtValues;
 	}
 
-	private Double calcViolationFactor(String resId) {
-		Calendar receivedAfter = Calendar.getInstance();
-		// use 24h period
-		receivedAfter.add(Calendar.HOUR, -24);
-		List<Violation> vList = violationRepository.findRecentViolationsByResourceId(receivedAfter.getTime(), resId);
+	private Double calcResourceTrust(String resId, Double availScore) {
+		return availScore != null ? calcResourceTrust(availScore, violationCounter.countRecent(resId)) : null;
+	}
+
+	private Double calcResourceTrust(Double availScore, long violationCnt) {
+		Double mS = getMonitoringScore(availScore);
+		Double rt = mS != null ? mS * calcViolationFactor(violationCnt) : null;
+
+		return formatValue(rt);
+	}
 
-		int cnt = vList != null ? vList.size() : 0;
+	private Double getMonitoringScore(Double availScore) {
+		return availScore != null ? availScore * 100 : null;
+	}
 
+	private Double calcViolationFactor(long cnt) {
 		if (cnt < 5)
 			return 1.0;
 
@@ -96,9 +171,41 @@ public class TrustCalculationService {
 	 * @return adaptive resource trust value double value between 0 - 100 or null if not specified.
 	 */
 	public Double calcAdaptiveResourceTrust(Double curArtValue, String resId, String platformId) {
-		TrustEntry rtEntry = trustRepository.getRTEntryByResourceId(resId);
-		TrustEntry prEntry = trustRepository.getPREntryByPlatformId(platformId);
+		return calcAdaptiveResourceTrust(curArtValue, resId, platformId, trustRepository.getRTEntryByResourceId(resId),
+				trustRepository.getPREntryByPlatformId(platformId));
+	}
 
+	/**
+	 * Calculates adaptive resource trust for a chunk of adaptive resource trust entries. The resource trust entries of the chunk are loaded with a
+	 * single query, platform reputation entries not yet contained in the given map are loaded with a single query and added to it.
+	 * 
+	 * @param artEntries
+	 *            adaptive resource trust entries
+	 * @param prEntries
+	 *            platform reputation entries by platform ID, shared by all chunks of an update cycle
+	 * @return map of resource ID to adaptive resource trust value (double value between 0 - 100 or null if not specified).
+	 */
+	public Map<String, Double> calcAdaptiveResourceTrust(List<TrustEntry> artEntries, Map<String, TrustEntry> prEntries) {
+		Set<String> resIds = artEntries.stream().map(TrustEntry::getResourceId).collect(Collectors.toSet());
+		Map<String, TrustEntry> rtEntries = trustRepository.findRTEntriesByResourceIds(resIds).stream()
+				.collect(Collectors.toMap(TrustEntry::getResourceId, Function.identity(), (e1, e2) -> e1));
+
+		Set<String> missingPlatformIds = artEntries.stream().map(TrustEntry::getPlatformId).filter(pId -> !prEntries.containsKey(pId))
+				.collect(Collectors.toSet());
+		if (!missingPlatformIds.isEmpty()) {
+			trustRepository.findPREntriesByPlatformIds(missingPlatformIds).forEach(prEntry -> prEntries.put(prEntry.getPlatformId(), prEntry));
+			// remember platforms without reputation entry to not query them again in this cycle
+			missingPlatformIds.forEach(pId -> prEntries.putIfAbsent(pId, null));
+		}
+
+		Map<String, Double> artValues = new HashMap<>();
+		artEntries.forEach(entry -> artValues.put(entry.getResourceId(), calcAdaptiveResourceTrust(entry.getValue(), entry.getResourceId(),
+				entry.getPlatformId(), rtEntries.get(entry.getResourceId()), prEntries.get(entry.getPlatformId()))));
+
+		return artValues;
+	}
+
+	private Double calcAdaptiveResourceTrust(Double curArtValue, String resId, String platformId, TrustEntry rtEntry, TrustEntry prEntry) {
 		if (rtEntry == null || rtEntry.getValue() == null) {
 			logger.warn("Shared resource trust for resource {} does not exist", resId);
 			return null;
@@ -144,11 +251,90 @@ public class TrustCalculationService {
 	 * @return platform reputation value double value between 0 - 100 or null if not specified.
 	 */
 	public Double calcPlatformReputation(String platformId) {
+		return calcPlatformReputation(platformId, null);
+	}
+
+	/**
+	 * Loads the anomaly detection stats of all platforms with a single request. To be loaded once per platform reputation cycle.
+	 * 
+	 * @return map of platform ID to number of hits or null if failed.
+	 */
+	public Map<String, Integer> loadPlatformADStats() {
+		return trustStatsLoader.getPlatformADStats();
+	}
+
+	/**
+	 * Calculates platform reputation for given platformId.
+	 * 
+	 * @param platformId
+	 *            platform ID
+	 * @param adStats
+	 *            anomaly detection stats of all platforms loaded with {@link #loadPlatformADStats()} or null to fetch the stats of this platform.
+	 * @return platform reputation value double value between 0 - 100 or null if not specified.
+	 */
+	public Double calcPlatformReputation(String platformId, Map<String, Integer> adStats) {
+		return calcPlatformReputation(Collections.singletonList(platformId), adStats).get(platformId);
+	}
+
+	/**
+	 * Calculates platform reputation for multiple platforms. The federation history of all platforms is requested before awaiting any of them, so
+	 * the latencies of the platforms overlap. The REST sources are fetched for at most as many platforms at once as the reputation source executor
+	 * runs in parallel, each of these windows gets its own deadline. Sources not answering within the deadline are ignored.
+	 * 
+	 * @param platformIds
+	 *            platform IDs
+	 * @param adStats
+	 *            anomaly detection stats of all platforms loaded with {@link #loadPlatformADStats()} or null to fetch the stats per platform.
+	 * @return map of platform ID to platform reputation value (double value between 0 - 100 or null if not specified).
+	 */
+	public Map<String, Double> calcPlatformReputation(Collection<String> platformIds, Map<String, Integer> adStats) {
+		// federation history is requested asynchronously for all platforms
+		Map<String, Future<Double>> fhScores = new LinkedHashMap<>();
+		platformIds.forEach(platformId -> fhScores.put(platformId,
+				amqpService.fetchFederationHistoryAsync(platformId).thenApply(this::getFederationHistoryScore)));
+
+		// the REST sources are fetched on the reputation source executor, one or two calls per platform
+		int window = Math.max(1, reputationSourceExecutor.getCorePoolSize() / (adStats != null ? 1 : 2));
+		List<String> ids = new ArrayList<>(fhScores.keySet());
+		Map<String, Double> prValues = new HashMap<>();
+
+		for (int i = 0; i < ids.size(); i += window) {
+			long deadline = System.currentTimeMillis() + reputationDeadline;
+
+			Map<String, ReputationSources> sources = new LinkedHashMap<>();
+			ids.subList(i, Math.min(i + window, ids.size()))
+					.forEach(platformId -> sources.put(platformId, fetchReputationSources(platformId, fhScores.get(platformId), adStats)));
+
+			sources.forEach((platformId, src) -> prValues.put(platformId, calcPlatformReputation(platformId, src, deadline)));
+		}
+
+		return prValues;
+	}
+
+	private ReputationSources fetchReputationSources(String platformId, Future<Double> fhFuture, Map<String, Integer> adStats) {
+		Future<Double> btFuture = submitSource(() -> getBarteringScore(platformId), "bartering", platformId);
+		Future<Double> adFuture = adStats != null ? CompletableFuture.completedFuture(getADStatsScore(adStats.get(platformId)))
+				: submitSource(() -> getADStatsScore(trustStatsLoader.getPlatformADStats(platformId)), "anomaly detection", platformId);
+
+		return new ReputationSources(fhFuture, btFuture, adFuture);
+	}
+
+	private Future<Double> submitSource(Callable<Double> source, String sourceName, String platformId) {
+		try {
+			// unlike CompletableFuture, the submitted future interrupts the running call when cancelled at the deadline
+			return reputationSourceExecutor.submit(source);
+		} catch (TaskRejectedException e) {
+			logger.warn("Fetching {} score for platform {} rejected, reputation source executor saturated", sourceName, platformId);
+			return CompletableFuture.completedFuture(null);
+		}
+	}
+
+	private Double calcPlatformReputation(String platformId, ReputationSources sources, long deadline) {
 		Double prVal = 0.0;
 		int cnt = 0;
-		Double fhScore = getFederationHistoryScore(platformId);
-		Double btScore = getBarteringScore(platformId);
-		Double adScore = getADStatsScore(platformId);
+		Double fhScore = awaitScore(sources.fhScore, deadline, "federation history", platformId);
+		Double btScore = awaitScore(sources.btScore, deadline, "bartering", platformId);
+		Double adScore = awaitScore(sources.adScore, deadline, "anomaly detection", platformId);
 
 		if (fhScore != null) {
 			int fhFactor = 10;
@@ -169,8 +355,22 @@ public class TrustCalculationService {
 		return cnt > 0 ? formatValue(prVal / cnt) : null;
 	}
 
-	private Double getADStatsScore(String platformId) {
-		Integer adHits = trustStatsLoader.getPlatformADStats(platformId);
+	private Double awaitScore(Future<Double> score, long deadline, String source, String platformId) {
+		try {
+			return score.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			score.cancel(true);
+			logger.warn("Fetching {} score for platform {} exceeded the deadline", source, platformId);
+		} catch (ExecutionException e) {
+			logger.warn("Fetching {} score for platform {} failed", source, platformId, e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		return null;
+	}
+
+	private Double getADStatsScore(Integer adHits) {
 		return adHits != null ? calcADMetric(adHits) : null;
 	}
 
@@ -220,8 +420,7 @@ public class TrustCalculationService {
 		return 10.0;
 	}
 
-	private Double getFederationHistoryScore(String platformId) {
-		List<FederationHistory> fh = amqpService.fetchFederationHistory(platformId);
+	private Double getFederationHistoryScore(List<FederationHistory> fh) {
 		if (fh != null && !fh.isEmpty()) {
 			Double score = 0.0;
 			for (FederationHistory h : fh) {
@@ -253,4 +452,16 @@ public class TrustCalculationService {
 		
 		return val1;
 	}
+
+	private static class ReputationSources {
+		private final Future<Double> fhScore;
+		private final Future<Double> btScore;
+		private final Future<Double> adScore;
+
+		ReputationSources(Future<Double> fhScore, Future<Double> btScore, Future<Double> adScore) {
+			this.fhScore = fhScore;
+			this.btScore = btScore;
+			this.adScore = adScore;
+		}
+	}
 }
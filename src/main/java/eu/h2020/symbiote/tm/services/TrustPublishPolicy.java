@@ -0,0 +1,225 @@
+package eu.h2020.symbiote.tm.services;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry.Type;
+
+/**
+ * Decides per trust type whether an updated trust value is significant enough to be published. Changes are compared against the last published
+ * value of the entry. Significant changes held back by the minimum republish interval are published once the interval elapsed.
+ */
+@Component
+public class TrustPublishPolicy implements PublicMetrics {
+
+	@Value("${symbIoTe.trust.resource_trust.publish.min_delta:0}")
+	private double rtMinDelta;
+
+	@Value("${symbIoTe.trust.resource_trust.publish.min_relative_delta:0}")
+	private double rtMinRelativeDelta;
+
+	@Value("${symbIoTe.trust.resource_trust.publish.min_interval:0}")
+	private long rtMinInterval;
+
+	@Value("${symbIoTe.trust.platform_reputation.publish.min_delta:0}")
+	private double prMinDelta;
+
+	@Value("${symbIoTe.trust.platform_reputation.publish.min_relative_delta:0}")
+	private double prMinRelativeDelta;
+
+	@Value("${symbIoTe.trust.platform_reputation.publish.min_interval:0}")
+	private long prMinInterval;
+
+	@Value("${symbIoTe.trust.adaptive_resource_trust.publish.min_delta:0}")
+	private double artMinDelta;
+
+	@Value("${symbIoTe.trust.adaptive_resource_trust.publish.min_relative_delta:0}")
+	private double artMinRelativeDelta;
+
+	@Value("${symbIoTe.trust.adaptive_resource_trust.publish.min_interval:0}")
+	private long artMinInterval;
+
+	@Value("${symbIoTe.trust.publish.retention:86400000}")
+	private long retention;
+
+	@Autowired
+	private TrustAMQPService amqpService;
+
+	private final Map<String, Published> published = new ConcurrentHashMap<>();
+
+	private final Map<String, TrustEntry> pending = new ConcurrentHashMap<>();
+
+	private final Map<Type, AtomicLong> suppressed = new EnumMap<>(Type.class);
+
+	public TrustPublishPolicy() {
+		for (Type type : Type.values()) {
+			suppressed.put(type, new AtomicLong());
+		}
+	}
+
+	/**
+	 * Checks if the updated entry has to be published and records it as published if so.
+	 * 
+	 * @param entry
+	 *            updated {@link TrustEntry}
+	 * @param curVal
+	 *            value before the update, used as reference if the entry was not published yet
+	 * @return true if the change is significant and the minimum republish interval of the entry passed.
+	 */
+	public boolean shouldPublish(TrustEntry entry, Double curVal) {
+		Double newVal = entry.getValue();
+		Published last = published.get(entry.getId());
+		Double refVal = last != null ? last.value : curVal;
+
+		if (Objects.equals(refVal, newVal)) {
+			// changed back to the published value -> nothing left to publish
+			pending.remove(entry.getId());
+			return false;
+		}
+
+		long now = System.currentTimeMillis();
+		boolean significant = refVal == null || newVal == null || isSignificant(entry.getType(), refVal, newVal);
+		boolean due = last == null || now - last.time >= getMinInterval(entry.getType());
+
+		if (significant && due) {
+			published.put(entry.getId(), new Published(newVal, now));
+			pending.remove(entry.getId());
+			return true;
+		}
+
+		// the latest significant change is kept until the interval elapsed
+		if (significant) {
+			pending.put(entry.getId(), entry);
+		} else {
+			pending.remove(entry.getId());
+		}
+		suppressed.get(entry.getType()).incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Publishes the pending changes of all entries whose minimum republish interval elapsed and forgets published values older than the retention,
+	 * e.g. of entries which are no longer updated. Triggered every symbIoTe.trust.publish.pending.interval ms.
+	 */
+	@Scheduled(fixedDelayString = "${symbIoTe.trust.publish.pending.interval:1000}")
+	public void publishPending() {
+		long now = System.currentTimeMillis();
+		// kept at least as long as any interval, so expiry never publishes earlier than the interval allows
+		long keep = Math.max(retention, Math.max(rtMinInterval, Math.max(prMinInterval, artMinInterval)));
+		published.entrySet().removeIf(e -> now - e.getValue().time >= keep && !pending.containsKey(e.getKey()));
+
+		if (pending.isEmpty()) {
+			return;
+		}
+
+		pending.values().forEach(entry -> {
+			Published last = published.get(entry.getId());
+			if ((last == null || now - last.time >= getMinInterval(entry.getType())) && pending.remove(entry.getId(), entry)) {
+				published.put(entry.getId(), new Published(entry.getValue(), now));
+				publish(entry);
+			}
+		});
+		amqpService.flushBatches();
+	}
+
+	/**
+	 * Forgets the last published value of the given entry, e.g. as it was deleted.
+	 * 
+	 * @param id
+	 *            trust entry ID
+	 */
+	public void remove(String id) {
+		published.remove(id);
+		pending.remove(id);
+	}
+
+	private void publish(TrustEntry entry) {
+		switch (entry.getType()) {
+		case RESOURCE_TRUST:
+			amqpService.publishResourceTrustUpdate(entry);
+			break;
+		case PLATFORM_REPUTATION:
+			amqpService.publishPlatformReputationUpdate(entry);
+			break;
+		default:
+			amqpService.publishAdaptiveResourceTrustUpdate(entry);
+		}
+	}
+
+	private boolean isSignificant(Type type, double refVal, double newVal) {
+		double delta = Math.abs(newVal - refVal);
+		double minDelta = getMinDelta(type);
+		double minRelativeDelta = getMinRelativeDelta(type);
+
+		if (minDelta <= 0 && minRelativeDelta <= 0) {
+			return true;
+		}
+
+		return (minDelta > 0 && delta >= minDelta) || (minRelativeDelta > 0 && delta >= minRelativeDelta * Math.abs(refVal));
+	}
+
+	private double getMinDelta(Type type) {
+		switch (type) {
+		case RESOURCE_TRUST:
+			return rtMinDelta;
+		case PLATFORM_REPUTATION:
+			return prMinDelta;
+		default:
+			return artMinDelta;
+		}
+	}
+
+	private double getMinRelativeDelta(Type type) {
+		switch (type) {
+		case RESOURCE_TRUST:
+			return rtMinRelativeDelta;
+		case PLATFORM_REPUTATION:
+			return prMinRelativeDelta;
+		default:
+			return artMinRelativeDelta;
+		}
+	}
+
+	private long getMinInterval(Type type) {
+		switch (type) {
+		case RESOURCE_TRUST:
+			return rtMinInterval;
+		case PLATFORM_REPUTATION:
+			return prMinInterval;
+		default:
+			return artMinInterval;
+		}
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<>();
+		suppressed.forEach((type, cnt) -> metrics.add(new Metric<>("trust.publish.suppressed." + type.name().toLowerCase(), cnt.get())));
+		metrics.add(new Metric<>("trust.publish.pending", pending.size()));
+		return metrics;
+	}
+
+	private static class Published {
+		private final Double value;
+		private final long time;
+
+		Published(Double value, long time) {
+			this.value = value;
+			this.time = time;
+		}
+	}
+}
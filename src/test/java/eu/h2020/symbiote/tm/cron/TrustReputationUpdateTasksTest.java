@@ -1,8 +1,14 @@
 package eu.h2020.symbiote.tm.cron;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -10,14 +16,19 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 
 import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
 import eu.h2020.symbiote.cloud.trust.model.TrustEntry.Type;
+import eu.h2020.symbiote.tm.repositories.TrustBulkWriter;
 import eu.h2020.symbiote.tm.repositories.TrustRepository;
+import eu.h2020.symbiote.tm.services.AdaptiveResourceTrustUpdater;
+import eu.h2020.symbiote.tm.services.ResourceTrustFingerprints;
 import eu.h2020.symbiote.tm.services.TrustAMQPService;
 import eu.h2020.symbiote.tm.services.TrustCalculationService;
+import eu.h2020.symbiote.tm.services.TrustPublishPolicy;
 
 @RunWith(SpringRunner.class)
 public class TrustReputationUpdateTasksTest {
@@ -30,6 +41,15 @@ public class TrustReputationUpdateTasksTest {
 	@Mock
 	private TrustRepository trustRepository;
 
+	@Mock
+	private TrustBulkWriter trustBulkWriter;
+
+	@Mock
+	private AdaptiveResourceTrustUpdater artUpdater;
+
+	@Mock
+	private ResourceTrustFingerprints fingerprints;
+
 	@InjectMocks
 	private final TrustReputationUpdateTasks service = new TrustReputationUpdateTasks();
 
@@ -37,19 +57,24 @@ public class TrustReputationUpdateTasksTest {
 	public void setup() throws Exception {
 		ReflectionTestUtils.setField(service, "interval", 30);
 		ReflectionTestUtils.setField(service, "ownPlatformId", "abc");
+		ReflectionTestUtils.setField(service, "chunkSize", 100);
+		ReflectionTestUtils.setField(service, "publishPolicy", new TrustPublishPolicy());
+		Mockito.when(trustBulkWriter.write(Mockito.any(TrustEntry.class)))
+				.thenAnswer(invocation -> CompletableFuture.completedFuture(invocation.getArguments()[0]));
 	}
 
 	@Test
 	public void testScheduleResourceTrustUpdate0() throws Exception {
 		List<TrustEntry> entries = new ArrayList<>();
 		entries.add(new TrustEntry(Type.RESOURCE_TRUST, "p-1", "sr-1"));
-		Mockito.when(trustRepository.findEntriesUpdatedAfterByPlatform(Mockito.any(Date.class), Mockito.any(Type.class), Mockito.anyString()))
-				.thenReturn(entries);
-		Mockito.when(trustService.calcResourceTrust("sr-1")).thenReturn(55.2);
+		Mockito.when(trustRepository.streamEntriesUpdatedAfterByPlatform(Mockito.any(Date.class), Mockito.any(Type.class), Mockito.anyString()))
+				.thenReturn(entries.stream());
+		Mockito.when(trustService.calcChangedResourceTrust(Mockito.anyCollection())).thenReturn(Collections.singletonMap("sr-1", 55.2));
 
 		service.scheduleResourceTrustUpdate();
 
-		Mockito.verify(trustRepository, Mockito.times(1)).save(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).write(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).flush();
 		Mockito.verify(amqpService, Mockito.times(1)).publishResourceTrustUpdate(Mockito.any(TrustEntry.class));
 	}
 
@@ -59,13 +84,14 @@ public class TrustReputationUpdateTasksTest {
 		TrustEntry te = new TrustEntry(Type.RESOURCE_TRUST, "p-1", "sr-2");
 		te.setValue(44.0);
 		entries.add(te);
-		Mockito.when(trustRepository.findEntriesUpdatedAfterByPlatform(Mockito.any(Date.class), Mockito.any(Type.class), Mockito.anyString()))
-				.thenReturn(entries);
-		Mockito.when(trustService.calcResourceTrust("sr-2")).thenReturn(44.0);
+		Mockito.when(trustRepository.streamEntriesUpdatedAfterByPlatform(Mockito.any(Date.class), Mockito.any(Type.class), Mockito.anyString()))
+				.thenReturn(entries.stream());
+		Mockito.when(trustService.calcChangedResourceTrust(Mockito.anyCollection())).thenReturn(Collections.singletonMap("sr-2", 44.0));
 
 		service.scheduleResourceTrustUpdate();
 
-		Mockito.verify(trustRepository, Mockito.times(1)).save(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).write(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).flush();
 		Mockito.verify(amqpService, Mockito.never()).publishResourceTrustUpdate(Mockito.any(TrustEntry.class));
 	}
 
@@ -75,27 +101,99 @@ public class TrustReputationUpdateTasksTest {
 		TrustEntry te = new TrustEntry(Type.RESOURCE_TRUST, "p-1", "sr-3");
 		te.setValue(44.0);
 		entries.add(te);
-		Mockito.when(trustRepository.findEntriesUpdatedAfterByPlatform(Mockito.any(Date.class), Mockito.any(Type.class), Mockito.anyString()))
-				.thenReturn(entries);
-		Mockito.when(trustService.calcResourceTrust("sr-3")).thenReturn(44.01);
+		Mockito.when(trustRepository.streamEntriesUpdatedAfterByPlatform(Mockito.any(Date.class), Mockito.any(Type.class), Mockito.anyString()))
+				.thenReturn(entries.stream());
+		Mockito.when(trustService.calcChangedResourceTrust(Mockito.anyCollection())).thenReturn(Collections.singletonMap("sr-3", 44.01));
 
 		service.scheduleResourceTrustUpdate();
 
-		Mockito.verify(trustRepository, Mockito.times(1)).save(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).write(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).flush();
 		Mockito.verify(amqpService, Mockito.times(1)).publishResourceTrustUpdate(Mockito.any(TrustEntry.class));
 	}
 
+	@Test
+	public void testScheduleResourceTrustUpdateUnchanged() throws Exception {
+		List<TrustEntry> entries = new ArrayList<>();
+		TrustEntry te1 = new TrustEntry(Type.RESOURCE_TRUST, "p-1", "sr-1");
+		te1.setValue(44.0);
+		entries.add(te1);
+		TrustEntry te2 = new TrustEntry(Type.RESOURCE_TRUST, "p-1", "sr-2");
+		te2.setValue(44.0);
+		entries.add(te2);
+		Mockito.when(trustRepository.streamEntriesUpdatedAfterByPlatform(Mockito.any(Date.class), Mockito.any(Type.class), Mockito.anyString()))
+				.thenReturn(entries.stream());
+		Mockito.when(trustService.calcChangedResourceTrust(Mockito.anyCollection())).thenReturn(Collections.singletonMap("sr-2", 50.0));
+
+		service.scheduleResourceTrustUpdate();
+
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).write(te2);
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).touch(Collections.singletonList(te1.getId()));
+		Mockito.verify(amqpService, Mockito.times(1)).publishResourceTrustUpdate(te2);
+	}
+
+	@Test
+	public void testScheduleResourceTrustUpdateWriteFailure() throws Exception {
+		List<TrustEntry> entries = new ArrayList<>();
+		entries.add(new TrustEntry(Type.RESOURCE_TRUST, "p-1", "sr-1"));
+		Mockito.when(trustRepository.streamEntriesUpdatedAfterByPlatform(Mockito.any(Date.class), Mockito.any(Type.class), Mockito.anyString()))
+				.thenReturn(entries.stream());
+		Mockito.when(trustService.calcChangedResourceTrust(Mockito.anyCollection())).thenReturn(Collections.singletonMap("sr-1", 55.2));
+		CompletableFuture<TrustEntry> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new RuntimeException("connection lost"));
+		Mockito.when(trustBulkWriter.write(Mockito.any(TrustEntry.class))).thenReturn(failed);
+
+		service.scheduleResourceTrustUpdate();
+
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).flush();
+		Mockito.verify(amqpService, Mockito.never()).publishResourceTrustUpdate(Mockito.any(TrustEntry.class));
+		Mockito.verify(fingerprints, Mockito.times(1)).remove(Collections.singletonList("sr-1"));
+	}
+
+	@Test
+	public void testScheduleResourceTrustUpdateParallel() throws Exception {
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(4);
+		executor.setQueueCapacity(2);
+		executor.initialize();
+		ReflectionTestUtils.setField(service, "trustUpdateExecutor", executor);
+		ReflectionTestUtils.setField(service, "parallel", true);
+		ReflectionTestUtils.setField(service, "maxConcurrency", 2);
+		ReflectionTestUtils.setField(service, "chunkSize", 3);
+
+		List<TrustEntry> entries = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			entries.add(new TrustEntry(Type.RESOURCE_TRUST, "p-1", "sr-" + i));
+		}
+		Mockito.when(trustRepository.streamEntriesUpdatedAfterByPlatform(Mockito.any(Date.class), Mockito.any(Type.class), Mockito.anyString()))
+				.thenReturn(entries.stream());
+		Mockito.when(trustService.calcChangedResourceTrust(Mockito.anyCollection())).thenAnswer(invocation -> {
+			Map<String, Double> values = new HashMap<>();
+			((Collection<?>) invocation.getArguments()[0]).forEach(resId -> values.put((String) resId, 55.2));
+			return values;
+		});
+
+		service.scheduleResourceTrustUpdate();
+		executor.shutdown();
+
+		Mockito.verify(trustBulkWriter, Mockito.times(20)).write(Mockito.any(TrustEntry.class));
+		Mockito.verify(amqpService, Mockito.times(20)).publishResourceTrustUpdate(Mockito.any(TrustEntry.class));
+	}
+
 	@Test
 	public void testSchedulePlatformReputationUpdate0() throws Exception {
 		List<TrustEntry> entries = new ArrayList<>();
 		entries.add(new TrustEntry(Type.PLATFORM_REPUTATION, "p-1", null));
-		Mockito.when(trustRepository.findEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class))).thenReturn(entries);
-		Mockito.when(trustService.calcPlatformReputation("p-1")).thenReturn(55.2);
+		Mockito.when(trustRepository.streamEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class))).thenReturn(entries.stream());
+		Mockito.when(trustService.calcPlatformReputation(Mockito.anyCollection(), Mockito.anyMap())).thenReturn(Collections.singletonMap("p-1", 55.2));
 
 		service.schedulePlatformReputationUpdate();
 
-		Mockito.verify(trustRepository, Mockito.times(1)).save(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).write(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).flush();
 		Mockito.verify(amqpService, Mockito.times(1)).publishPlatformReputationUpdate(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustService, Mockito.times(1)).loadPlatformADStats();
+		Mockito.verify(artUpdater, Mockito.times(1)).platformReputationChanged(entries);
 	}
 
 	@Test
@@ -104,13 +202,15 @@ public class TrustReputationUpdateTasksTest {
 		TrustEntry te = new TrustEntry(Type.PLATFORM_REPUTATION, "p-2", null);
 		te.setValue(44.0);
 		entries.add(te);
-		Mockito.when(trustRepository.findEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class))).thenReturn(entries);
-		Mockito.when(trustService.calcPlatformReputation("p-2")).thenReturn(44.0);
+		Mockito.when(trustRepository.streamEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class))).thenReturn(entries.stream());
+		Mockito.when(trustService.calcPlatformReputation(Mockito.anyCollection(), Mockito.anyMap())).thenReturn(Collections.singletonMap("p-2", 44.0));
 
 		service.schedulePlatformReputationUpdate();
 
-		Mockito.verify(trustRepository, Mockito.times(1)).save(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).write(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).flush();
 		Mockito.verify(amqpService, Mockito.never()).publishPlatformReputationUpdate(Mockito.any(TrustEntry.class));
+		Mockito.verify(artUpdater, Mockito.times(1)).platformReputationChanged(Collections.emptyList());
 	}
 
 	@Test
@@ -119,56 +219,120 @@ public class TrustReputationUpdateTasksTest {
 		TrustEntry te = new TrustEntry(Type.PLATFORM_REPUTATION, "p-3", null);
 		te.setValue(44.0);
 		entries.add(te);
-		Mockito.when(trustRepository.findEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class))).thenReturn(entries);
-		Mockito.when(trustService.calcPlatformReputation("p-3")).thenReturn(44.01);
+		Mockito.when(trustRepository.streamEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class))).thenReturn(entries.stream());
+		Mockito.when(trustService.calcPlatformReputation(Mockito.anyCollection(), Mockito.anyMap())).thenReturn(Collections.singletonMap("p-3", 44.01));
 
 		service.schedulePlatformReputationUpdate();
 
-		Mockito.verify(trustRepository, Mockito.times(1)).save(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).write(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).flush();
 		Mockito.verify(amqpService, Mockito.times(1)).publishPlatformReputationUpdate(Mockito.any(TrustEntry.class));
+		Mockito.verify(artUpdater, Mockito.times(1)).platformReputationChanged(Collections.singletonList(te));
 	}
 
 	@Test
-	public void testScheduleAdaptiveResourceTrustUpdate0() throws Exception {
+	public void testSchedulePlatformReputationUpdateDeferredWrites() throws Exception {
+		// writes stay pending until the writer is flushed
+		List<CompletableFuture<TrustEntry>> pending = new ArrayList<>();
+		Mockito.when(trustBulkWriter.write(Mockito.any(TrustEntry.class))).thenAnswer(invocation -> {
+			CompletableFuture<TrustEntry> write = new CompletableFuture<>();
+			pending.add(write);
+			return write;
+		});
 		List<TrustEntry> entries = new ArrayList<>();
-		TrustEntry te = new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "sr-1");
-		entries.add(te);
-		Mockito.when(trustRepository.findEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class))).thenReturn(entries);
-		Mockito.when(trustService.calcAdaptiveResourceTrust(te.getValue(), te.getResourceId(), te.getPlatformId())).thenReturn(44.0);
+		TrustEntry te1 = new TrustEntry(Type.PLATFORM_REPUTATION, "p-1", null);
+		TrustEntry te2 = new TrustEntry(Type.PLATFORM_REPUTATION, "p-2", null);
+		TrustEntry te3 = new TrustEntry(Type.PLATFORM_REPUTATION, "p-3", null);
+		te3.setValue(44.0);
+		entries.addAll(Arrays.asList(te1, te2, te3));
+		Mockito.when(trustRepository.streamEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class))).thenReturn(entries.stream());
+		Map<String, Double> prValues = new HashMap<>();
+		prValues.put("p-1", 55.2);
+		prValues.put("p-2", 60.0);
+		prValues.put("p-3", 44.0);
+		Mockito.when(trustService.calcPlatformReputation(Mockito.anyCollection(), Mockito.anyMap())).thenReturn(prValues);
+		Mockito.doAnswer(invocation -> {
+			pending.get(0).complete(te1);
+			pending.get(1).completeExceptionally(new RuntimeException("connection lost"));
+			pending.get(2).complete(te3);
+			return null;
+		}).when(trustBulkWriter).flush();
 
-		service.scheduleAdaptiveResourceTrustUpdate();
+		service.schedulePlatformReputationUpdate();
 
-		Mockito.verify(trustRepository, Mockito.times(1)).save(Mockito.any(TrustEntry.class));
-		Mockito.verify(amqpService, Mockito.times(1)).publishAdaptiveResourceTrustUpdate(Mockito.any(TrustEntry.class));
+		// p-2 failed to store, p-3 did not change
+		Mockito.verify(artUpdater, Mockito.times(1)).platformReputationChanged(Collections.singletonList(te1));
+		Mockito.verify(amqpService, Mockito.times(1)).publishPlatformReputationUpdate(te1);
 	}
 
 	@Test
-	public void testScheduleAdaptiveResourceTrustUpdate1() throws Exception {
+	public void testSchedulePlatformReputationUpdateSuppressed() throws Exception {
+		TrustPublishPolicy publishPolicy = new TrustPublishPolicy();
+		ReflectionTestUtils.setField(publishPolicy, "prMinDelta", 1.0);
+		ReflectionTestUtils.setField(service, "publishPolicy", publishPolicy);
 		List<TrustEntry> entries = new ArrayList<>();
-		TrustEntry te = new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "sr-1");
+		TrustEntry te = new TrustEntry(Type.PLATFORM_REPUTATION, "p-3", null);
 		te.setValue(44.0);
 		entries.add(te);
-		Mockito.when(trustRepository.findEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class))).thenReturn(entries);
-		Mockito.when(trustService.calcAdaptiveResourceTrust(te.getValue(), te.getResourceId(), te.getPlatformId())).thenReturn(44.0);
+		Mockito.when(trustRepository.streamEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class))).thenReturn(entries.stream());
+		Mockito.when(trustService.calcPlatformReputation(Mockito.anyCollection(), Mockito.anyMap())).thenReturn(Collections.singletonMap("p-3", 44.5));
 
-		service.scheduleAdaptiveResourceTrustUpdate();
+		service.schedulePlatformReputationUpdate();
 
-		Mockito.verify(trustRepository, Mockito.times(1)).save(Mockito.any(TrustEntry.class));
-		Mockito.verify(amqpService, Mockito.never()).publishAdaptiveResourceTrustUpdate(Mockito.any(TrustEntry.class));
+		// not published, but the stored change is still propagated to the adaptive resource trust
+		Mockito.verify(amqpService, Mockito.never()).publishPlatformReputationUpdate(Mockito.any(TrustEntry.class));
+		Mockito.verify(artUpdater, Mockito.times(1)).platformReputationChanged(Collections.singletonList(te));
 	}
 
 	@Test
-	public void testScheduleAdaptiveResourceTrustUpdate2() throws Exception {
+	public void testScheduleAdaptiveResourceTrustUpdate0() throws Exception {
 		List<TrustEntry> entries = new ArrayList<>();
 		TrustEntry te = new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "sr-1");
-		te.setValue(44.0);
 		entries.add(te);
-		Mockito.when(trustRepository.findEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class))).thenReturn(entries);
-		Mockito.when(trustService.calcAdaptiveResourceTrust(te.getValue(), te.getResourceId(), te.getPlatformId())).thenReturn(44.1);
+		Mockito.when(trustRepository.streamEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class))).thenReturn(entries.stream());
 
 		service.scheduleAdaptiveResourceTrustUpdate();
 
-		Mockito.verify(trustRepository, Mockito.times(1)).save(Mockito.any(TrustEntry.class));
-		Mockito.verify(amqpService, Mockito.times(1)).publishAdaptiveResourceTrustUpdate(Mockito.any(TrustEntry.class));
+		Mockito.verify(artUpdater, Mockito.times(1)).updateEntries(Mockito.eq(entries), Mockito.anyMap());
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).flush();
+		Mockito.verify(trustRepository, Mockito.never()).streamEntriesWithoutValueUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class));
+	}
+
+	@Test
+	public void testScheduleAdaptiveResourceTrustUpdateIncremental() throws Exception {
+		List<TrustEntry> entries = new ArrayList<>();
+		entries.add(new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "sr-1"));
+		entries.add(new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "sr-2"));
+		Mockito.when(artUpdater.isIncremental()).thenReturn(true);
+		Mockito.when(trustRepository.streamEntriesWithoutValueUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class))).thenReturn(entries.stream());
+		ReflectionTestUtils.setField(service, "artSwept", true);
+
+		service.scheduleAdaptiveResourceTrustUpdate();
+
+		Mockito.verify(artUpdater, Mockito.times(1)).updateUnconverged(Mockito.anyMap());
+		Mockito.verify(artUpdater, Mockito.times(1)).updateEntries(Mockito.eq(entries), Mockito.anyMap());
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).flush();
+		Mockito.verify(trustRepository, Mockito.never()).streamEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class));
+	}
+
+	@Test
+	public void testScheduleAdaptiveResourceTrustUpdateIncrementalFirstCycle() throws Exception {
+		List<TrustEntry> entries = new ArrayList<>();
+		entries.add(new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "sr-1"));
+		Mockito.when(artUpdater.isIncremental()).thenReturn(true);
+		Mockito.when(trustRepository.streamEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class))).thenReturn(entries.stream())
+				.thenReturn(new ArrayList<TrustEntry>().stream());
+		Mockito.when(trustRepository.streamEntriesWithoutValueUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class)))
+				.thenReturn(new ArrayList<TrustEntry>().stream());
+
+		// convergence state is kept in memory -> full recompute after startup
+		service.scheduleAdaptiveResourceTrustUpdate();
+		Mockito.verify(trustRepository, Mockito.times(1)).streamEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class));
+		Mockito.verify(artUpdater, Mockito.never()).updateUnconverged(Mockito.anyMap());
+
+		service.scheduleAdaptiveResourceTrustUpdate();
+		Mockito.verify(trustRepository, Mockito.times(1)).streamEntriesUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class));
+		Mockito.verify(trustRepository, Mockito.times(1)).streamEntriesWithoutValueUpdatedAfter(Mockito.any(Date.class), Mockito.any(Type.class));
+		Mockito.verify(artUpdater, Mockito.times(1)).updateUnconverged(Mockito.anyMap());
 	}
 }
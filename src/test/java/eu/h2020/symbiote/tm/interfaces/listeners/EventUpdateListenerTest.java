@@ -1,6 +1,11 @@
 package eu.h2020.symbiote.tm.interfaces.listeners;
 
+import static org.junit.Assert.assertEquals;
+
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -10,24 +15,36 @@ import java.util.Set;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.Spy;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.util.ReflectionTestUtils;
 
+import com.rabbitmq.client.Channel;
+
 import eu.h2020.symbiote.cloud.model.internal.CloudResource;
 import eu.h2020.symbiote.cloud.model.internal.FederatedResource;
 import eu.h2020.symbiote.cloud.model.internal.FederationInfoBean;
 import eu.h2020.symbiote.cloud.model.internal.ResourceSharingInformation;
 import eu.h2020.symbiote.cloud.model.internal.ResourcesAddedOrUpdatedMessage;
 import eu.h2020.symbiote.cloud.model.internal.ResourcesDeletedMessage;
+import eu.h2020.symbiote.cloud.sla.model.Violation;
+import eu.h2020.symbiote.cloud.sla.model.ViolationNotification;
 import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry.Type;
 import eu.h2020.symbiote.model.cim.Resource;
 import eu.h2020.symbiote.model.mim.Federation;
 import eu.h2020.symbiote.model.mim.FederationMember;
-import eu.h2020.symbiote.tm.repositories.SLAViolationRepository;
+import eu.h2020.symbiote.tm.repositories.TrustBulkWriter;
 import eu.h2020.symbiote.tm.repositories.TrustRepository;
+import eu.h2020.symbiote.tm.services.AdaptiveResourceTrustUpdater;
+import eu.h2020.symbiote.tm.services.FederationHistoryCache;
+import eu.h2020.symbiote.tm.services.ResourceTrustFastLane;
+import eu.h2020.symbiote.tm.services.ResourceTrustFingerprints;
+import eu.h2020.symbiote.tm.services.TrustPublishPolicy;
 
 @RunWith(SpringRunner.class)
 public class EventUpdateListenerTest {
@@ -35,7 +52,31 @@ public class EventUpdateListenerTest {
 	private TrustRepository trustRepository;
 
 	@Mock
-	private SLAViolationRepository violationRepository;
+	private TrustBulkWriter trustBulkWriter;
+
+	@Mock
+	private SLAViolationBatchConsumer violationBatchConsumer;
+
+	@Mock
+	private Channel channel;
+
+	@Mock
+	private FederationHistoryCache federationHistoryCache;
+
+	@Mock
+	private AdaptiveResourceTrustUpdater artUpdater;
+
+	@Mock
+	private ResourceTrustFingerprints fingerprints;
+
+	@Mock
+	private TrustPublishPolicy publishPolicy;
+
+	@Mock
+	private ResourceTrustFastLane fastLane;
+
+	@Spy
+	private KeyedLaneDispatcher laneDispatcher = new KeyedLaneDispatcher();
 
 	@InjectMocks
 	private final EventUpdateListener service = new EventUpdateListener();
@@ -63,6 +104,7 @@ public class EventUpdateListenerTest {
 		Mockito.when(trustRepository.exists(Mockito.anyString())).thenReturn(false);
 		service.receiveOwnSharedResources(resList);
 		Mockito.verify(trustRepository, Mockito.times(1)).save(Mockito.any(TrustEntry.class));
+		Mockito.verify(fastLane, Mockito.times(1)).resourcesAdded(Arrays.asList("r-123"));
 	}
 
 	@Test
@@ -79,6 +121,7 @@ public class EventUpdateListenerTest {
 		Mockito.when(trustRepository.exists(Mockito.anyString())).thenReturn(false).thenReturn(true);
 		service.receiveOwnSharedResources(resList);
 		Mockito.verify(trustRepository, Mockito.times(1)).save(Mockito.any(TrustEntry.class));
+		Mockito.verify(fastLane, Mockito.times(1)).resourcesAdded(Arrays.asList("r-456"));
 	}
 
 	@Test
@@ -95,6 +138,7 @@ public class EventUpdateListenerTest {
 
 		service.receiveOwnUnsharedResources(resList);
 		Mockito.verify(trustRepository, Mockito.times(1)).delete(Mockito.anyString());
+		Mockito.verify(fingerprints, Mockito.times(1)).remove(resList);
 	}
 
 	@Test
@@ -104,12 +148,66 @@ public class EventUpdateListenerTest {
 		service.receiveForeignSharedResources(sr);
 		service.receiveForeignSharedResources(null);
 		Mockito.verify(trustRepository, Mockito.never()).save(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.never()).upsert(Mockito.anyCollection(), Mockito.anyCollection());
 	}
 
 	@Test
 	public void testReceiveForeignSharedResources1() throws Exception {
+		ResourcesAddedOrUpdatedMessage sr = generateSharedResourcesMessage(1.2);
+
+		service.receiveForeignSharedResources(sr);
+		Mockito.verify(trustRepository, Mockito.never()).save(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustRepository, Mockito.never()).exists(Mockito.anyString());
+		Mockito.verify(trustRepository, Mockito.times(1)).findRTEntriesByResourceIds(Mockito.anyCollection());
+
+		ArgumentCaptor<Collection> rtEntries = ArgumentCaptor.forClass(Collection.class);
+		ArgumentCaptor<Collection> artEntries = ArgumentCaptor.forClass(Collection.class);
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).upsert(rtEntries.capture(), artEntries.capture());
+		assertEquals(Type.RESOURCE_TRUST, ((TrustEntry) rtEntries.getValue().iterator().next()).getType());
+		assertEquals(Double.valueOf(1.2), ((TrustEntry) rtEntries.getValue().iterator().next()).getValue());
+		assertEquals(Type.ADAPTIVE_RESOURCE_TRUST, ((TrustEntry) artEntries.getValue().iterator().next()).getType());
+
+		Mockito.verify(artUpdater, Mockito.times(1)).resourceTrustChanged(Arrays.asList("sr@345"));
+	}
+
+	@Test
+	public void testReceiveForeignSharedResourcesUnchanged() throws Exception {
+		TrustEntry curRte = new TrustEntry(TrustEntry.Type.RESOURCE_TRUST, null, "sr@345");
+		curRte.setValue(1.2);
+		Mockito.when(trustRepository.findRTEntriesByResourceIds(Mockito.anyCollection())).thenReturn(Arrays.asList(curRte));
+
+		service.receiveForeignSharedResources(generateSharedResourcesMessage(1.2));
+		Mockito.verify(artUpdater, Mockito.times(1)).resourceTrustChanged(Collections.emptyList());
+	}
+
+	@Test
+	public void testReceiveForeignSharedResourcesSingleBulkOperation() throws Exception {
+		ReflectionTestUtils.setField(laneDispatcher, "laneCount", 4);
+		ReflectionTestUtils.setField(laneDispatcher, "laneCapacity", 1000);
+		ReflectionTestUtils.setField(laneDispatcher, "laneTimeout", 60000L);
+		laneDispatcher.start();
+		try {
+			ResourcesAddedOrUpdatedMessage sr = generateSharedResourcesMessage(1.2);
+			ResourceSharingInformation rsi = new ResourceSharingInformation();
+			rsi.setSymbioteId("sr@678");
+			sr.getNewFederatedResources().get(0).getCloudResource().getFederationInfo().getSharingInformation().put("456", rsi);
+
+			service.receiveForeignSharedResources(sr);
+
+			// not partitioned onto the lanes
+			Mockito.verify(laneDispatcher, Mockito.never()).dispatch(Mockito.anyCollection(), Mockito.any(), Mockito.any());
+			Mockito.verify(trustRepository, Mockito.times(1)).findRTEntriesByResourceIds(Mockito.anyCollection());
+			ArgumentCaptor<Collection> rtEntries = ArgumentCaptor.forClass(Collection.class);
+			Mockito.verify(trustBulkWriter, Mockito.times(1)).upsert(rtEntries.capture(), Mockito.anyCollection());
+			assertEquals(2, rtEntries.getValue().size());
+		} finally {
+			laneDispatcher.stop();
+		}
+	}
+
+	private ResourcesAddedOrUpdatedMessage generateSharedResourcesMessage(Double resourceTrust) {
 		FederationInfoBean fib = new FederationInfoBean();
-		fib.setResourceTrust(1.2);
+		fib.setResourceTrust(resourceTrust);
 
 		Map<String, ResourceSharingInformation> sharingInformation = new HashMap<>();
 		ResourceSharingInformation rsi = new ResourceSharingInformation();
@@ -127,10 +225,7 @@ public class EventUpdateListenerTest {
 		List<FederatedResource> frList = new ArrayList<>();
 		frList.add(fr);
 
-		ResourcesAddedOrUpdatedMessage sr = new ResourcesAddedOrUpdatedMessage(frList);
-
-		service.receiveForeignSharedResources(sr);
-		Mockito.verify(trustRepository, Mockito.times(2)).save(Mockito.any(TrustEntry.class));
+		return new ResourcesAddedOrUpdatedMessage(frList);
 	}
 
 	@Test
@@ -150,6 +245,7 @@ public class EventUpdateListenerTest {
 
 		service.receiveForeignUnsharedResources(sr);
 		Mockito.verify(trustRepository, Mockito.times(2)).delete(Mockito.anyString());
+		Mockito.verify(publishPolicy, Mockito.times(2)).remove(Mockito.anyString());
 	}
 
 	@Test
@@ -171,5 +267,20 @@ public class EventUpdateListenerTest {
 		Mockito.when(trustRepository.exists(Mockito.anyString())).thenReturn(false).thenReturn(true);
 		service.receiveFederationUpdated(fed);
 		Mockito.verify(trustRepository, Mockito.times(1)).save(Mockito.any(TrustEntry.class));
+		Mockito.verify(federationHistoryCache, Mockito.times(1)).invalidate(Arrays.asList("p-1", "p-2"));
+	}
+
+	@Test
+	public void testReceiveSLAViolation() throws Exception {
+		List<Violation> violations = new ArrayList<>();
+		violations.add(new Violation());
+		violations.add(new Violation());
+		ViolationNotification notification = new ViolationNotification();
+		notification.setViolations(violations);
+
+		service.receiveSLAViolation(notification, channel, 1L);
+		service.receiveSLAViolation(null, channel, 2L);
+		Mockito.verify(violationBatchConsumer, Mockito.times(1)).add(channel, 1L, violations);
+		Mockito.verify(violationBatchConsumer, Mockito.times(1)).add(channel, 2L, null);
 	}
 }
@@ -0,0 +1,160 @@
+package eu.h2020.symbiote.tm.interfaces.listeners;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@RunWith(SpringRunner.class)
+public class KeyedLaneDispatcherTest {
+
+	private final KeyedLaneDispatcher dispatcher = new KeyedLaneDispatcher();
+
+	@Before
+	public void setup() throws Exception {
+		ReflectionTestUtils.setField(dispatcher, "laneCount", 0);
+		ReflectionTestUtils.setField(dispatcher, "laneCapacity", 1000);
+		ReflectionTestUtils.setField(dispatcher, "laneTimeout", 60000L);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		dispatcher.stop();
+	}
+
+	@Test
+	public void testInline() throws Exception {
+		dispatcher.start();
+		String thread = Thread.currentThread().getName();
+		List<String> handled = new ArrayList<>();
+
+		dispatcher.dispatch(Arrays.asList("r-1", "r-2"), Function.identity(), items -> {
+			assertEquals(thread, Thread.currentThread().getName());
+			handled.addAll(items);
+		});
+		dispatcher.dispatch(Collections.emptyList(), Function.identity(), items -> handled.add("empty"));
+
+		assertEquals(Arrays.asList("r-1", "r-2"), handled);
+	}
+
+	@Test
+	public void testLanesKeepOrderPerKey() throws Exception {
+		ReflectionTestUtils.setField(dispatcher, "laneCount", 4);
+		dispatcher.start();
+
+		Map<String, List<Integer>> handled = new ConcurrentHashMap<>();
+		Map<String, String> threads = new ConcurrentHashMap<>();
+		CountDownLatch done = new CountDownLatch(100);
+
+		for (int i = 0; i < 50; i++) {
+			int seq = i;
+			dispatcher.dispatch(Arrays.asList("r-1", "r-2"), Function.identity(), items -> items.forEach(key -> {
+				handled.computeIfAbsent(key, k -> Collections.synchronizedList(new ArrayList<>())).add(seq);
+				threads.put(key, Thread.currentThread().getName());
+				done.countDown();
+			}));
+		}
+
+		assertTrue(done.await(5, TimeUnit.SECONDS));
+		for (String key : Arrays.asList("r-1", "r-2")) {
+			List<Integer> seqs = handled.get(key);
+			assertEquals(50, seqs.size());
+			for (int i = 0; i < 50; i++) {
+				assertEquals(Integer.valueOf(i), seqs.get(i));
+			}
+			assertTrue(threads.get(key).startsWith("listener-lane-"));
+		}
+		assertNotEquals(Thread.currentThread().getName(), threads.get("r-1"));
+		assertEquals(4, dispatcher.metrics().size());
+	}
+
+	@Test
+	public void testDispatchWaitsForLanes() throws Exception {
+		ReflectionTestUtils.setField(dispatcher, "laneCount", 4);
+		dispatcher.start();
+		List<String> handled = Collections.synchronizedList(new ArrayList<>());
+
+		dispatcher.dispatch(Arrays.asList("r-1", "r-2", "r-3"), Function.identity(), handled::addAll);
+
+		// all partitions are processed when dispatch returns
+		assertEquals(3, handled.size());
+	}
+
+	@Test
+	public void testDispatchTimeout() throws Exception {
+		ReflectionTestUtils.setField(dispatcher, "laneCount", 1);
+		ReflectionTestUtils.setField(dispatcher, "laneTimeout", 100L);
+		dispatcher.start();
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> handled = Collections.synchronizedList(new ArrayList<>());
+
+		try {
+			dispatcher.dispatch(Arrays.asList("r-1"), Function.identity(), items -> {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			fail("timeout not signalled");
+		} catch (IllegalStateException e) {
+			// expected
+		}
+
+		release.countDown();
+		dispatcher.dispatch(Arrays.asList("r-2"), Function.identity(), handled::addAll);
+		assertEquals(Arrays.asList("r-2"), handled);
+	}
+
+	@Test(expected = RejectedExecutionException.class)
+	public void testDispatchAfterStop() throws Exception {
+		ReflectionTestUtils.setField(dispatcher, "laneCount", 2);
+		dispatcher.start();
+		dispatcher.stop();
+
+		dispatcher.dispatch(Arrays.asList("r-1"), Function.identity(), items -> {
+		});
+	}
+
+	@Test
+	public void testDispatchRethrowsFailure() throws Exception {
+		ReflectionTestUtils.setField(dispatcher, "laneCount", 4);
+		dispatcher.start();
+		List<String> handled = Collections.synchronizedList(new ArrayList<>());
+
+		try {
+			dispatcher.dispatch(Arrays.asList("r-1", "r-2", "r-3"), Function.identity(), items -> items.forEach(key -> {
+				if ("r-2".equals(key)) {
+					throw new IllegalStateException("connection lost");
+				}
+				handled.add(key);
+			}));
+			fail("failure not rethrown");
+		} catch (IllegalStateException e) {
+			assertEquals("connection lost", e.getMessage());
+		}
+
+		// r-1 precedes r-2 in any partition, so it is processed before dispatch rethrows
+		assertTrue(handled.contains("r-1"));
+		assertFalse(handled.contains("r-2"));
+	}
+}
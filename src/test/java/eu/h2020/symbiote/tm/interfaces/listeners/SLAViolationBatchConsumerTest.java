@@ -0,0 +1,150 @@
+package eu.h2020.symbiote.tm.interfaces.listeners;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.rabbitmq.client.Channel;
+
+import eu.h2020.symbiote.cloud.sla.model.Violation;
+import eu.h2020.symbiote.tm.repositories.SLAViolationRepository;
+import eu.h2020.symbiote.tm.services.ResourceTrustFastLane;
+import eu.h2020.symbiote.tm.services.SLAViolationCounter;
+
+@RunWith(SpringRunner.class)
+public class SLAViolationBatchConsumerTest {
+
+	@Mock
+	private SLAViolationRepository violationRepository;
+
+	@Mock
+	private SLAViolationCounter violationCounter;
+
+	@Mock
+	private ResourceTrustFastLane fastLane;
+
+	@Mock
+	private Channel channel;
+
+	@InjectMocks
+	private final SLAViolationBatchConsumer consumer = new SLAViolationBatchConsumer();
+
+	@Before
+	public void setup() throws Exception {
+		ReflectionTestUtils.setField(consumer, "batchSize", 3);
+		ReflectionTestUtils.setField(consumer, "maxAttempts", 3);
+		Mockito.when(channel.isOpen()).thenReturn(true);
+		Mockito.when(violationRepository.insertNew(Mockito.anyCollection()))
+				.thenAnswer(invocation -> new ArrayList<>((Collection<?>) invocation.getArguments()[0]));
+	}
+
+	@Test
+	public void testBatchSizeReached() throws Exception {
+		consumer.add(channel, 1L, Arrays.asList(new Violation(), new Violation()));
+		Mockito.verify(violationRepository, Mockito.never()).insertNew(Mockito.anyCollection());
+		Mockito.verify(channel, Mockito.never()).basicAck(Mockito.anyLong(), Mockito.anyBoolean());
+
+		consumer.add(channel, 2L, Arrays.asList(new Violation(), null));
+		Mockito.verify(violationRepository, Mockito.times(1)).insertNew(Mockito.anyCollection());
+		Mockito.verify(violationCounter, Mockito.times(3)).record(Mockito.any(Violation.class));
+		Mockito.verify(channel, Mockito.times(1)).basicAck(2L, true);
+
+		consumer.flush();
+		Mockito.verify(channel, Mockito.times(1)).basicAck(Mockito.anyLong(), Mockito.anyBoolean());
+	}
+
+	@Test
+	public void testFlush() throws Exception {
+		consumer.add(channel, 1L, Arrays.asList(new Violation()));
+		consumer.add(channel, 2L, null);
+		consumer.flush();
+
+		Mockito.verify(violationRepository, Mockito.times(1)).insertNew(Mockito.anyCollection());
+		Mockito.verify(violationCounter, Mockito.times(1)).record(Mockito.any(Violation.class));
+		Mockito.verify(channel, Mockito.times(1)).basicAck(2L, true);
+	}
+
+	@Test
+	public void testFlushEmptyMessages() throws Exception {
+		consumer.add(channel, 1L, null);
+		consumer.flush();
+
+		Mockito.verify(violationRepository, Mockito.never()).insertNew(Mockito.anyCollection());
+		Mockito.verify(channel, Mockito.times(1)).basicAck(1L, true);
+	}
+
+	@Test
+	public void testDuplicatesNotCounted() throws Exception {
+		Violation violation = new Violation();
+		Mockito.when(violationRepository.insertNew(Mockito.anyCollection())).thenReturn(Arrays.asList(violation));
+
+		consumer.add(channel, 1L, Arrays.asList(violation, new Violation(), new Violation()));
+
+		Mockito.verify(violationCounter, Mockito.times(1)).record(violation);
+		Mockito.verify(channel, Mockito.times(1)).basicAck(1L, true);
+	}
+
+	@Test
+	public void testFastLaneNotified() throws Exception {
+		consumer.add(channel, 1L, Arrays.asList(mockViolation("r-1"), mockViolation("r-1"), mockViolation("r-2")));
+
+		Mockito.verify(fastLane, Mockito.times(1)).violationsReceived(Arrays.asList("r-1", "r-2"));
+	}
+
+	@Test
+	public void testInsertFailure() throws Exception {
+		Mockito.when(violationRepository.insertNew(Mockito.anyCollection())).thenThrow(new RuntimeException("connection lost"));
+
+		consumer.add(channel, 1L, Arrays.asList(new Violation()));
+		consumer.flush();
+
+		Mockito.verify(channel, Mockito.never()).basicAck(Mockito.anyLong(), Mockito.anyBoolean());
+		Mockito.verify(channel, Mockito.times(1)).basicNack(1L, true, true);
+		Mockito.verify(violationCounter, Mockito.never()).record(Mockito.any(Violation.class));
+		Mockito.verify(fastLane, Mockito.never()).violationsReceived(Mockito.anyCollection());
+	}
+
+	@Test
+	public void testInsertFailureNotRequeuedForever() throws Exception {
+		ReflectionTestUtils.setField(consumer, "maxAttempts", 2);
+		Mockito.when(violationRepository.insertNew(Mockito.anyCollection())).thenThrow(new RuntimeException("invalid document"));
+
+		consumer.add(channel, 1L, Arrays.asList(new Violation()));
+		consumer.flush();
+		consumer.add(channel, 2L, Arrays.asList(new Violation()));
+		consumer.flush();
+
+		Mockito.verify(channel, Mockito.times(1)).basicNack(1L, true, true);
+		Mockito.verify(channel, Mockito.times(1)).basicNack(2L, true, false);
+	}
+
+	@Test
+	public void testClosedChannelDiscarded() throws Exception {
+		consumer.add(channel, 1L, Arrays.asList(new Violation()));
+		Mockito.when(channel.isOpen()).thenReturn(false);
+		consumer.flush();
+
+		Mockito.verify(violationRepository, Mockito.never()).insertNew(Mockito.anyCollection());
+		Mockito.verify(channel, Mockito.never()).basicAck(Mockito.anyLong(), Mockito.anyBoolean());
+
+		// batch of the closed channel is dropped
+		Mockito.when(channel.isOpen()).thenReturn(true);
+		consumer.flush();
+		Mockito.verify(violationRepository, Mockito.never()).insertNew(Mockito.anyCollection());
+	}
+
+	private Violation mockViolation(String deviceId) {
+		Violation violation = Mockito.mock(Violation.class);
+		Mockito.when(violation.getDeviceId()).thenReturn(deviceId);
+		return violation;
+	}
+}
@@ -0,0 +1,87 @@
+package eu.h2020.symbiote.tm.interfaces.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import eu.h2020.symbiote.security.commons.exceptions.custom.SecurityHandlerException;
+import eu.h2020.symbiote.security.communication.payloads.SecurityRequest;
+import eu.h2020.symbiote.security.handler.IComponentSecurityHandler;
+
+@RunWith(SpringRunner.class)
+public class AuthManagerTest {
+
+	@Mock
+	private IComponentSecurityHandler securityHandler;
+
+	@Mock
+	private SecurityRequest securityRequest;
+
+	private AuthManager authManager;
+
+	@Before
+	public void setup() throws Exception {
+		authManager = new AuthManager("user", "pw", "http://localhost", "clientId", "keystore.jks", "kspw", false);
+		ReflectionTestUtils.setField(authManager, "isSecurityEnabled", true);
+		ReflectionTestUtils.setField(authManager, "securityHandler", securityHandler);
+		ReflectionTestUtils.setField(authManager, "headerValidity", 60000L);
+		ReflectionTestUtils.setField(authManager, "headerRefreshAhead", 5000L);
+
+		Map<String, String> params = new HashMap<>();
+		params.put("x-auth-timestamp", "123");
+		Mockito.when(securityRequest.getSecurityRequestHeaderParams()).thenReturn(params);
+		Mockito.when(securityHandler.generateSecurityRequestUsingLocalCredentials()).thenReturn(securityRequest);
+	}
+
+	@Test
+	public void testGenerateRequestHeadersCached() throws Exception {
+		HttpHeaders headers1 = authManager.generateRequestHeaders();
+		headers1.add("Content-Type", "application/json");
+		HttpHeaders headers2 = authManager.generateRequestHeaders();
+
+		Mockito.verify(securityHandler, Mockito.times(1)).generateSecurityRequestUsingLocalCredentials();
+		assertEquals("123", headers2.getFirst("x-auth-timestamp"));
+		assertEquals(1, headers2.size());
+	}
+
+	@Test
+	public void testGenerateRequestHeadersExpired() throws Exception {
+		ReflectionTestUtils.setField(authManager, "headerValidity", -1L);
+
+		authManager.generateRequestHeaders();
+		authManager.generateRequestHeaders();
+
+		Mockito.verify(securityHandler, Mockito.times(2)).generateSecurityRequestUsingLocalCredentials();
+	}
+
+	@Test
+	public void testGenerateRequestHeadersRefreshAhead() throws Exception {
+		ReflectionTestUtils.setField(authManager, "headerRefreshAhead", 60000L);
+
+		authManager.generateRequestHeaders();
+		HttpHeaders headers = authManager.generateRequestHeaders();
+		assertEquals("123", headers.getFirst("x-auth-timestamp"));
+
+		Mockito.verify(securityHandler, Mockito.timeout(1000).times(2)).generateSecurityRequestUsingLocalCredentials();
+	}
+
+	@Test
+	public void testGenerateRequestHeadersFail() throws Exception {
+		Mockito.when(securityHandler.generateSecurityRequestUsingLocalCredentials()).thenThrow(new SecurityHandlerException("fail"));
+
+		HttpHeaders headers = authManager.generateRequestHeaders();
+
+		assertTrue(headers.isEmpty());
+	}
+}
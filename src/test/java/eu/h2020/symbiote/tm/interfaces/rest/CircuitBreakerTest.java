@@ -0,0 +1,100 @@
+package eu.h2020.symbiote.tm.interfaces.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+public class CircuitBreakerTest {
+
+	@Test(expected = CircuitBreaker.CallRejectedException.class)
+	public void testOpenAfterFailures() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", 2, 60000, 10);
+
+		fail(breaker);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		fail(breaker);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+		breaker.execute(() -> "ok");
+	}
+
+	@Test
+	public void testSuccessResetsFailures() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", 2, 60000, 10);
+
+		fail(breaker);
+		assertEquals("ok", breaker.execute(() -> "ok"));
+		fail(breaker);
+
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testHalfOpenProbe() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", 1, 0, 10);
+
+		fail(breaker);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+		// failed probe opens the circuit again, successful probe closes it
+		fail(breaker);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		assertEquals("ok", breaker.execute(() -> "ok"));
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	@Test
+	public void testBulkhead() throws Exception {
+		CircuitBreaker breaker = new CircuitBreaker("test", 1, 60000, 1);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+
+		CompletableFuture<String> running = CompletableFuture.supplyAsync(() -> {
+			try {
+				return breaker.execute(() -> {
+					started.countDown();
+					release.await();
+					return "ok";
+				});
+			} catch (Exception e) {
+				return null;
+			}
+		});
+		started.await();
+
+		boolean rejectedCall = false;
+		try {
+			breaker.execute(() -> "rejected");
+		} catch (CircuitBreaker.CallRejectedException e) {
+			rejectedCall = true;
+		}
+		assertTrue(rejectedCall);
+		Map<String, Number> metrics = breaker.metrics().stream().collect(Collectors.toMap(Metric::getName, Metric::getValue));
+		assertEquals(1L, metrics.get("trust.circuit_breaker.test.rejected"));
+		assertEquals(1, metrics.get("trust.circuit_breaker.test.active"));
+
+		release.countDown();
+		assertEquals("ok", running.get());
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+	}
+
+	private void fail(CircuitBreaker breaker) {
+		try {
+			breaker.execute(() -> {
+				throw new IllegalStateException("fail");
+			});
+		} catch (Exception e) {
+			// expected
+		}
+	}
+}
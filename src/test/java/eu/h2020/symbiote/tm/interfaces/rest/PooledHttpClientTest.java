@@ -0,0 +1,42 @@
+package eu.h2020.symbiote.tm.interfaces.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+public class PooledHttpClientTest {
+
+	@Test
+	public void testMetrics() throws Exception {
+		PooledHttpClient client = new PooledHttpClient(10, 5, 30000, 60000);
+		assertNotNull(client.getHttpClient());
+
+		Map<String, Number> metrics = client.metrics().stream().collect(Collectors.toMap(Metric::getName, Metric::getValue));
+		assertEquals(0, metrics.get("trust.http.pool.leased"));
+		assertEquals(0, metrics.get("trust.http.pool.available"));
+		assertEquals(0, metrics.get("trust.http.pool.pending"));
+		assertEquals(10, metrics.get("trust.http.pool.max"));
+		assertEquals(0, metrics.get("trust.http.pool.routes"));
+
+		client.close();
+	}
+
+	@Test
+	public void testEvictIdleConnections() throws Exception {
+		PooledHttpClient client = new PooledHttpClient(10, 5, 30000, 0);
+		client.evictIdleConnections();
+
+		Map<String, Number> metrics = client.metrics().stream().collect(Collectors.toMap(Metric::getName, Metric::getValue));
+		assertEquals(0, metrics.get("trust.http.pool.available"));
+
+		client.close();
+	}
+}
@@ -1,30 +1,45 @@
 package eu.h2020.symbiote.tm.interfaces.rest;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.springframework.boot.actuate.metrics.Metric;
 import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpMethod;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.http.client.MockClientHttpRequest;
+import org.springframework.mock.http.client.MockClientHttpResponse;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.client.RequestCallback;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.ResponseExtractor;
 import org.springframework.web.client.RestTemplate;
 
-import eu.h2020.symbiote.barteringAndTrading.FilterResponse;
 import eu.h2020.symbiote.cloud.monitoring.model.AggregatedMetrics;
+import eu.h2020.symbiote.security.communication.payloads.OriginPlatformGroupedPlatformMisdeedsReport;
+import eu.h2020.symbiote.security.handler.IComponentSecurityHandler;
 
 @RunWith(SpringRunner.class)
 public class TrustStatsLoaderTest {
@@ -41,6 +56,10 @@ public class TrustStatsLoaderTest {
 	public void setup() throws Exception {
 		ReflectionTestUtils.setField(service, "monitoringUrl", "https://monitoringUrl");
 		ReflectionTestUtils.setField(service, "coreBarteringUrl", "https://coreBarteringUrl");
+		ReflectionTestUtils.setField(service, "monitoringBatchSize", 2);
+		ReflectionTestUtils.setField(service, "breakerFailureThreshold", 5);
+		ReflectionTestUtils.setField(service, "breakerOpenDuration", 60000L);
+		ReflectionTestUtils.setField(service, "bulkheadMaxConcurrent", 16);
 	}
 
 	@Test
@@ -61,23 +80,123 @@ public class TrustStatsLoaderTest {
 		assertEquals(Double.valueOf(12.0), val);
 	}
 
+	@Test
+	public void testFetchResourceAvailabilityMetricsBatch() throws Exception {
+		List<AggregatedMetrics> resp1 = new ArrayList<>();
+		resp1.add(createMetrics("r1", 0.5));
+		resp1.add(createMetrics("r2", 0.7));
+		List<AggregatedMetrics> resp2 = new ArrayList<>();
+		resp2.add(createMetrics("r3", 0.9));
+
+		Mockito.when(restTemplate.exchange(Mockito.anyString(), Mockito.any(HttpMethod.class), Mockito.any(HttpEntity.class),
+				Mockito.any(ParameterizedTypeReference.class))).thenReturn(new ResponseEntity<List<AggregatedMetrics>>(resp1, HttpStatus.OK))
+				.thenReturn(new ResponseEntity<List<AggregatedMetrics>>(resp2, HttpStatus.OK));
+
+		Map<String, Double> vals = service.getResourceAvailabilityMetrics(Arrays.asList("r1", "r2", "r3", "r4"));
+
+		Mockito.verify(restTemplate, Mockito.times(1)).exchange(Mockito.eq("https://monitoringUrl?metric=availability&operation=avg&device=r1&device=r2"),
+				Mockito.any(HttpMethod.class), Mockito.any(HttpEntity.class), Mockito.any(ParameterizedTypeReference.class));
+		Mockito.verify(restTemplate, Mockito.times(1)).exchange(Mockito.eq("https://monitoringUrl?metric=availability&operation=avg&device=r3&device=r4"),
+				Mockito.any(HttpMethod.class), Mockito.any(HttpEntity.class), Mockito.any(ParameterizedTypeReference.class));
+		assertEquals(4, vals.size());
+		assertEquals(Double.valueOf(0.5), vals.get("r1"));
+		assertEquals(Double.valueOf(0.9), vals.get("r3"));
+		assertTrue(vals.containsKey("r4"));
+		assertEquals(null, vals.get("r4"));
+	}
+
+	@Test
+	public void testFetchResourceAvailabilityMetricsBatchRejected() throws Exception {
+		ReflectionTestUtils.setField(service, "breakerFailureThreshold", 1);
+		Mockito.when(restTemplate.exchange(Mockito.anyString(), Mockito.any(HttpMethod.class), Mockito.any(HttpEntity.class),
+				Mockito.any(ParameterizedTypeReference.class))).thenThrow(new ResourceAccessException("connect timed out"));
+
+		// failed call -> no stats, short-circuited call -> stats unknown
+		Map<String, Double> vals = service.getResourceAvailabilityMetrics(Arrays.asList("r1", "r2", "r3", "r4"));
+
+		assertEquals(2, vals.size());
+		assertTrue(vals.containsKey("r1"));
+		assertTrue(vals.containsKey("r2"));
+		Mockito.verify(restTemplate, Mockito.times(1)).exchange(Mockito.anyString(), Mockito.any(HttpMethod.class), Mockito.any(HttpEntity.class),
+				Mockito.any(ParameterizedTypeReference.class));
+	}
+
+	private AggregatedMetrics createMetrics(String deviceId, Double avg) {
+		AggregatedMetrics am = new AggregatedMetrics();
+		am.setDeviceId(deviceId);
+		Map<String, Double> statistics = new HashMap<>();
+		statistics.put("avg", avg);
+		am.setStatistics(statistics);
+		return am;
+	}
+
+	@Test
+	public void testFetchPlatformADStats() throws Exception {
+		OriginPlatformGroupedPlatformMisdeedsReport report = Mockito.mock(OriginPlatformGroupedPlatformMisdeedsReport.class);
+		Mockito.when(report.getTotalMisdeeds()).thenReturn(12);
+		Map<String, OriginPlatformGroupedPlatformMisdeedsReport> resp = new HashMap<>();
+		resp.put("p1", report);
+
+		IComponentSecurityHandler csh = Mockito.mock(IComponentSecurityHandler.class);
+		Mockito.when(csh.getOriginPlatformGroupedPlatformMisdeedsReports(Mockito.any(), Mockito.any())).thenReturn(resp).thenReturn(null);
+		Mockito.when(authManager.getSecurityHandler()).thenReturn(csh);
+
+		Map<String, Integer> vals = service.getPlatformADStats();
+		assertEquals(1, vals.size());
+		assertEquals(Integer.valueOf(12), vals.get("p1"));
+
+		assertEquals(null, service.getPlatformADStats());
+	}
+
 	@Test
 	public void testFetchBarteringStats() throws Exception {
 		String platformId = "p134";
 
-		List<FilterResponse> resp = new ArrayList<>();
-		resp.add(new FilterResponse());
-		resp.add(new FilterResponse());
-		resp.add(new FilterResponse());
-
 		Mockito.when(authManager.verifyResponseHeaders(Mockito.anyString(), Mockito.anyString(), Mockito.any())).thenReturn(true);
 
-		Mockito.when(restTemplate.exchange(Mockito.anyString(), Mockito.any(HttpMethod.class), Mockito.any(HttpEntity.class),
-				Mockito.any(ParameterizedTypeReference.class))).thenReturn(new ResponseEntity<List<FilterResponse>>(resp, HttpStatus.OK));
+		mockBarteringResponse(new MockClientHttpResponse("[{},{},{}]".getBytes(), HttpStatus.OK));
 
 		Integer val = service.getBarteringStats(platformId, new Date());
 
 		assertEquals(Integer.valueOf(3), val);
+		Mockito.verify(restTemplate, Mockito.times(1)).execute(Mockito.eq("https://coreBarteringUrl"), Mockito.eq(HttpMethod.POST),
+				Mockito.any(RequestCallback.class), Mockito.any(ResponseExtractor.class));
+	}
+
+	@Test
+	public void testFetchBarteringStatsNested() throws Exception {
+		Mockito.when(authManager.verifyResponseHeaders(Mockito.anyString(), Mockito.anyString(), Mockito.any())).thenReturn(true);
+
+		String json = "[{\"a\":[1,2,{\"b\":[]}]},[3,4],5,\"x\",null]";
+		mockBarteringResponse(new MockClientHttpResponse(json.getBytes(), HttpStatus.OK));
+
+		assertEquals(Integer.valueOf(5), service.getBarteringStats("p134", new Date()));
+	}
+
+	@Test
+	public void testFetchBarteringStatsRequestBody() throws Exception {
+		Mockito.when(restTemplate.getMessageConverters()).thenReturn(Collections.singletonList(new MappingJackson2HttpMessageConverter()));
+		mockBarteringResponse(new MockClientHttpResponse("[]".getBytes(), HttpStatus.OK));
+
+		service.getBarteringStats("p134", new Date());
+
+		ArgumentCaptor<RequestCallback> callback = ArgumentCaptor.forClass(RequestCallback.class);
+		Mockito.verify(restTemplate, Mockito.times(1)).execute(Mockito.anyString(), Mockito.any(HttpMethod.class), callback.capture(),
+				Mockito.any(ResponseExtractor.class));
+		MockClientHttpRequest request = new MockClientHttpRequest();
+		callback.getValue().doWithRequest(request);
+
+		assertEquals(MediaType.APPLICATION_JSON, request.getHeaders().getContentType());
+		assertTrue(request.getBodyAsString().contains("\"p134\""));
+	}
+
+	@SuppressWarnings("unchecked")
+	private void mockBarteringResponse(MockClientHttpResponse... responses) throws Exception {
+		Iterator<MockClientHttpResponse> it = Arrays.asList(responses).iterator();
+		Mockito.when(restTemplate.execute(Mockito.anyString(), Mockito.any(HttpMethod.class), Mockito.any(RequestCallback.class),
+				Mockito.any(ResponseExtractor.class))).thenAnswer(invocation -> {
+					return ((ResponseExtractor<Object>) invocation.getArguments()[3]).extractData(it.next());
+				});
 	}
 
 	@Test
@@ -85,9 +204,7 @@ public class TrustStatsLoaderTest {
 		String platformId = "p134";
 		Mockito.when(authManager.verifyResponseHeaders(Mockito.anyString(), Mockito.anyString(), Mockito.any())).thenReturn(true);
 
-		Mockito.when(restTemplate.exchange(Mockito.anyString(), Mockito.any(HttpMethod.class), Mockito.any(HttpEntity.class),
-				Mockito.any(ParameterizedTypeReference.class))).thenReturn(new ResponseEntity<List<List>>(new ArrayList<>(), HttpStatus.OK))
-				.thenReturn(new ResponseEntity<List<List>>(new ArrayList<>(), HttpStatus.BAD_GATEWAY));
+		mockBarteringResponse(new MockClientHttpResponse("[]".getBytes(), HttpStatus.OK), new MockClientHttpResponse("[]".getBytes(), HttpStatus.BAD_GATEWAY));
 
 		Integer val = service.getBarteringStats(platformId, new Date());
 		assertEquals(Integer.valueOf(0), val);
@@ -95,4 +212,22 @@ public class TrustStatsLoaderTest {
 		val = service.getBarteringStats(platformId, new Date());
 		assertEquals(null, val);
 	}
+
+	@Test
+	public void testCircuitBreakerOpens() throws Exception {
+		ReflectionTestUtils.setField(service, "breakerFailureThreshold", 2);
+		Mockito.when(restTemplate.exchange(Mockito.anyString(), Mockito.any(HttpMethod.class), Mockito.any(HttpEntity.class),
+				Mockito.any(ParameterizedTypeReference.class))).thenThrow(new ResourceAccessException("connect timed out"));
+
+		assertEquals(null, service.getResourceAvailabilityMetrics("r1"));
+		assertEquals(null, service.getResourceAvailabilityMetrics("r2"));
+		assertEquals(null, service.getResourceAvailabilityMetrics("r3"));
+
+		Mockito.verify(restTemplate, Mockito.times(2)).exchange(Mockito.anyString(), Mockito.any(HttpMethod.class), Mockito.any(HttpEntity.class),
+				Mockito.any(ParameterizedTypeReference.class));
+
+		Map<String, Number> metrics = service.metrics().stream().collect(Collectors.toMap(Metric::getName, Metric::getValue));
+		assertEquals(CircuitBreaker.State.OPEN.ordinal(), metrics.get("trust.circuit_breaker.monitoring.state"));
+		assertEquals(1L, metrics.get("trust.circuit_breaker.monitoring.rejected"));
+	}
 }
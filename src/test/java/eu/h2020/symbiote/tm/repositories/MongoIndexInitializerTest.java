@@ -0,0 +1,60 @@
+package eu.h2020.symbiote.tm.repositories;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import eu.h2020.symbiote.cloud.sla.model.Violation;
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
+
+@RunWith(SpringRunner.class)
+public class MongoIndexInitializerTest {
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	@Mock
+	private IndexOperations trustIndexOps;
+
+	@Mock
+	private IndexOperations violationIndexOps;
+
+	@InjectMocks
+	private final MongoIndexInitializer initializer = new MongoIndexInitializer();
+
+	@Before
+	public void setup() throws Exception {
+		ReflectionTestUtils.setField(initializer, "violationTtl", 3600L);
+		Mockito.when(mongoTemplate.indexOps(TrustEntry.class)).thenReturn(trustIndexOps);
+		Mockito.when(mongoTemplate.indexOps(Violation.class)).thenReturn(violationIndexOps);
+		Mockito.when(trustIndexOps.getIndexInfo()).thenReturn(new ArrayList<>());
+		Mockito.when(violationIndexOps.getIndexInfo()).thenReturn(new ArrayList<>());
+	}
+
+	@Test
+	public void testEnsureIndexes() throws Exception {
+		initializer.ensureIndexes();
+
+		Mockito.verify(trustIndexOps, Mockito.times(4)).ensureIndex(Mockito.any(IndexDefinition.class));
+		Mockito.verify(violationIndexOps, Mockito.times(2)).ensureIndex(Mockito.any(IndexDefinition.class));
+	}
+
+	@Test
+	public void testEnsureIndexesConflict() throws Exception {
+		Mockito.doThrow(new RuntimeException("IndexOptionsConflict")).when(trustIndexOps).ensureIndex(Mockito.any(IndexDefinition.class));
+
+		initializer.ensureIndexes();
+
+		Mockito.verify(trustIndexOps, Mockito.times(4)).ensureIndex(Mockito.any(IndexDefinition.class));
+		Mockito.verify(violationIndexOps, Mockito.times(2)).ensureIndex(Mockito.any(IndexDefinition.class));
+	}
+}
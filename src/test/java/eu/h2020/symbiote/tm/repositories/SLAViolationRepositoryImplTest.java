@@ -0,0 +1,133 @@
+package eu.h2020.symbiote.tm.repositories;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.DBObject;
+
+import eu.h2020.symbiote.cloud.sla.model.Violation;
+
+@RunWith(SpringRunner.class)
+public class SLAViolationRepositoryImplTest {
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	@Mock
+	private BulkOperations bulkOps;
+
+	@Mock
+	private MongoConverter converter;
+
+	@InjectMocks
+	private final SLAViolationRepositoryImpl repository = new SLAViolationRepositoryImpl();
+
+	private final Map<Violation, String[]> content = new IdentityHashMap<>();
+
+	@Before
+	public void setup() throws Exception {
+		ReflectionTestUtils.setField(repository, "recentKeysSize", 100000);
+		Mockito.when(mongoTemplate.bulkOps(Mockito.any(BulkMode.class), Mockito.eq(Violation.class))).thenReturn(bulkOps);
+		Mockito.when(mongoTemplate.getConverter()).thenReturn(converter);
+		Mockito.doAnswer(invocation -> {
+			String[] values = content.get(invocation.getArguments()[0]);
+			DBObject dbo = (DBObject) invocation.getArguments()[1];
+			dbo.put("deviceId", values[0]);
+			dbo.put("term", values[1]);
+			dbo.put("date", new Date(1000));
+			return null;
+		}).when(converter).write(Mockito.any(), Mockito.any(DBObject.class));
+	}
+
+	@Test
+	public void testInsertNewDeterministicKey() throws Exception {
+		Violation v1 = createViolation("d-1", "availability");
+		Violation v2 = createViolation("d-1", "availability");
+		Violation v3 = createViolation("d-1", "latency");
+
+		List<Violation> inserted = repository.insertNew(Arrays.asList(v1, v2, v3));
+
+		ArgumentCaptor<Object> docs = ArgumentCaptor.forClass(Object.class);
+		Mockito.verify(bulkOps, Mockito.times(2)).insert(docs.capture());
+		Mockito.verify(bulkOps, Mockito.times(1)).execute();
+		assertEquals(Arrays.asList(v1, v3), inserted);
+
+		String id = (String) ((DBObject) docs.getAllValues().get(0)).get("_id");
+		assertTrue(id.startsWith("d-1_1000_"));
+	}
+
+	@Test
+	public void testInsertNewRecentSkipped() throws Exception {
+		repository.insertNew(Arrays.asList(createViolation("d-1", "availability")));
+		List<Violation> inserted = repository.insertNew(Arrays.asList(createViolation("d-1", "availability")));
+
+		assertEquals(0, inserted.size());
+		Mockito.verify(bulkOps, Mockito.times(1)).insert(Mockito.any(Object.class));
+		Mockito.verify(bulkOps, Mockito.times(1)).execute();
+	}
+
+	@Test
+	public void testInsertNewRecentKeysLru() throws Exception {
+		ReflectionTestUtils.setField(repository, "recentKeysSize", 2);
+		repository.insertNew(Arrays.asList(createViolation("d-1", "availability")));
+		repository.insertNew(Arrays.asList(createViolation("d-2", "availability")));
+
+		// skipped d-1 is accessed, so d-2 is evicted by d-3
+		assertEquals(0, repository.insertNew(Arrays.asList(createViolation("d-1", "availability"))).size());
+		repository.insertNew(Arrays.asList(createViolation("d-3", "availability")));
+
+		assertEquals(0, repository.insertNew(Arrays.asList(createViolation("d-1", "availability"))).size());
+		assertEquals(1, repository.insertNew(Arrays.asList(createViolation("d-2", "availability"))).size());
+		Mockito.verify(bulkOps, Mockito.times(4)).insert(Mockito.any(Object.class));
+	}
+
+	@Test
+	public void testInsertNewDuplicateKey() throws Exception {
+		BulkOperationException e = Mockito.mock(BulkOperationException.class);
+		Mockito.when(e.getErrors()).thenReturn(Arrays.asList(new BulkWriteError(11000, "duplicate key", new BasicDBObject(), 0)));
+		Mockito.when(bulkOps.execute()).thenThrow(e);
+
+		Violation v1 = createViolation("d-1", "availability");
+		Violation v2 = createViolation("d-2", "availability");
+		List<Violation> inserted = repository.insertNew(Arrays.asList(v1, v2));
+
+		assertEquals(Arrays.asList(v2), inserted);
+	}
+
+	@Test(expected = BulkOperationException.class)
+	public void testInsertNewFailure() throws Exception {
+		BulkOperationException e = Mockito.mock(BulkOperationException.class);
+		Mockito.when(e.getErrors()).thenReturn(Arrays.asList(new BulkWriteError(121, "validation failed", new BasicDBObject(), 0)));
+		Mockito.when(bulkOps.execute()).thenThrow(e);
+
+		repository.insertNew(Arrays.asList(createViolation("d-1", "availability")));
+	}
+
+	private Violation createViolation(String deviceId, String term) {
+		Violation violation = new Violation();
+		content.put(violation, new String[] { deviceId, term });
+		return violation;
+	}
+}
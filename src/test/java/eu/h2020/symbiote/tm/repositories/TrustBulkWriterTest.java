@@ -0,0 +1,167 @@
+package eu.h2020.symbiote.tm.repositories;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.DBObject;
+
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry.Type;
+
+@RunWith(SpringRunner.class)
+public class TrustBulkWriterTest {
+	@Mock
+	private MongoTemplate mongoTemplate;
+
+	@Mock
+	private BulkOperations bulkOps;
+
+	@Mock
+	private MongoConverter converter;
+
+	@Mock
+	private BulkWriteResult result;
+
+	@InjectMocks
+	private final TrustBulkWriter writer = new TrustBulkWriter();
+
+	@Before
+	public void setup() throws Exception {
+		ReflectionTestUtils.setField(writer, "batchSize", 2);
+		Mockito.when(mongoTemplate.bulkOps(Mockito.any(BulkMode.class), Mockito.eq(TrustEntry.class))).thenReturn(bulkOps);
+		Mockito.when(mongoTemplate.getConverter()).thenReturn(converter);
+		Mockito.when(bulkOps.execute()).thenReturn(result);
+		Mockito.when(result.getUpserts()).thenReturn(new ArrayList<>());
+	}
+
+	@Test
+	public void testWriteBatches() throws Exception {
+		CompletableFuture<TrustEntry> written = writer.write(new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-1"));
+		Mockito.verify(bulkOps, Mockito.never()).execute();
+		assertFalse(written.isDone());
+
+		writer.write(new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-2"));
+		CompletableFuture<TrustEntry> pending = writer.write(new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-3"));
+		Mockito.verify(mongoTemplate, Mockito.times(1)).bulkOps(BulkMode.UNORDERED, TrustEntry.class);
+		Mockito.verify(bulkOps, Mockito.times(2)).updateOne(Mockito.any(Query.class), Mockito.any(Update.class));
+		Mockito.verify(bulkOps, Mockito.times(1)).execute();
+		assertEquals("r-1", written.get().getResourceId());
+		assertFalse(pending.isDone());
+
+		writer.flush();
+		Mockito.verify(bulkOps, Mockito.times(3)).updateOne(Mockito.any(Query.class), Mockito.any(Update.class));
+		Mockito.verify(bulkOps, Mockito.times(2)).execute();
+		Mockito.verify(bulkOps, Mockito.never()).upsert(Mockito.any(Query.class), Mockito.any(Update.class));
+		assertTrue(pending.isDone());
+	}
+
+	@Test
+	public void testWriteNow() throws Exception {
+		CompletableFuture<TrustEntry> pending = writer.write(new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-1"));
+
+		List<CompletableFuture<TrustEntry>> written = writer.writeNow(Arrays.asList(new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-2"),
+				new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-3"), new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-4")));
+
+		// batches of batch size, pending entries are left for the next flush
+		Mockito.verify(bulkOps, Mockito.times(3)).updateOne(Mockito.any(Query.class), Mockito.any(Update.class));
+		Mockito.verify(bulkOps, Mockito.times(2)).execute();
+		assertEquals(3, written.size());
+		assertEquals("r-4", written.get(2).get().getResourceId());
+		assertFalse(pending.isDone());
+	}
+
+	@Test
+	public void testFlushEmpty() throws Exception {
+		writer.flush();
+		Mockito.verify(mongoTemplate, Mockito.never()).bulkOps(Mockito.any(BulkMode.class), Mockito.eq(TrustEntry.class));
+	}
+
+	@Test
+	public void testWriteFailure() throws Exception {
+		Mockito.when(bulkOps.execute()).thenThrow(new RuntimeException("connection lost"));
+
+		CompletableFuture<TrustEntry> written = writer.write(new TrustEntry(Type.PLATFORM_REPUTATION, "p-1", null));
+		writer.flush();
+
+		Mockito.verify(bulkOps, Mockito.times(1)).execute();
+		assertTrue(written.isCompletedExceptionally());
+	}
+
+	@Test
+	public void testWritePartialFailure() throws Exception {
+		BulkOperationException e = Mockito.mock(BulkOperationException.class);
+		Mockito.when(e.getErrors()).thenReturn(Arrays.asList(new BulkWriteError(121, "validation failed", new BasicDBObject(), 1)));
+		Mockito.when(bulkOps.execute()).thenThrow(e);
+
+		CompletableFuture<TrustEntry> written = writer.write(new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-1"));
+		CompletableFuture<TrustEntry> failed = writer.write(new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-2"));
+
+		assertEquals("r-1", written.get().getResourceId());
+		assertTrue(failed.isCompletedExceptionally());
+	}
+
+	@Test
+	public void testTouch() throws Exception {
+		writer.touch(new ArrayList<>());
+		writer.touch(Arrays.asList("id-1", "id-2"));
+
+		Mockito.verify(mongoTemplate, Mockito.times(1)).updateMulti(Mockito.any(Query.class), Mockito.any(Update.class), Mockito.eq(TrustEntry.class));
+		Mockito.verify(bulkOps, Mockito.never()).execute();
+	}
+
+	@Test
+	public void testUpsert() throws Exception {
+		Mockito.doAnswer(invocation -> {
+			((DBObject) invocation.getArguments()[1]).put("type", ((TrustEntry) invocation.getArguments()[0]).getType().name());
+			return null;
+		}).when(converter).write(Mockito.any(), Mockito.any(DBObject.class));
+
+		writer.upsert(new ArrayList<>(), new ArrayList<>());
+		Mockito.verify(mongoTemplate, Mockito.never()).bulkOps(Mockito.any(BulkMode.class), Mockito.eq(TrustEntry.class));
+
+		writer.upsert(Arrays.asList(new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-1")),
+				Arrays.asList(new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "r-1")));
+
+		ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+		Mockito.verify(bulkOps, Mockito.times(2)).upsert(Mockito.any(Query.class), updates.capture());
+		Mockito.verify(bulkOps, Mockito.times(1)).execute();
+
+		List<Update> values = updates.getAllValues();
+		assertEquals("RESOURCE_TRUST", ((DBObject) values.get(0).getUpdateObject().get("$set")).get("type"));
+		assertTrue(values.get(1).getUpdateObject().containsField("$setOnInsert"));
+		assertEquals("ADAPTIVE_RESOURCE_TRUST", ((DBObject) values.get(1).getUpdateObject().get("$setOnInsert")).get("type"));
+	}
+
+	@Test(expected = RuntimeException.class)
+	public void testUpsertFailure() throws Exception {
+		Mockito.when(bulkOps.execute()).thenThrow(new RuntimeException("connection lost"));
+
+		writer.upsert(Arrays.asList(new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-1")), new ArrayList<>());
+	}
+}
@@ -0,0 +1,158 @@
+package eu.h2020.symbiote.tm.services;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry.Type;
+import eu.h2020.symbiote.tm.repositories.TrustBulkWriter;
+import eu.h2020.symbiote.tm.repositories.TrustRepository;
+
+@RunWith(SpringRunner.class)
+public class AdaptiveResourceTrustUpdaterTest {
+	@Mock
+	private TrustCalculationService trustService;
+
+	@Mock
+	private TrustAMQPService amqpService;
+
+	@Mock
+	private TrustRepository trustRepository;
+
+	@Mock
+	private TrustBulkWriter trustBulkWriter;
+
+	@InjectMocks
+	private final AdaptiveResourceTrustUpdater updater = new AdaptiveResourceTrustUpdater();
+
+	@Before
+	@SuppressWarnings("unchecked")
+	public void setup() throws Exception {
+		ReflectionTestUtils.setField(updater, "incremental", true);
+		ReflectionTestUtils.setField(updater, "chunkSize", 100);
+		ReflectionTestUtils.setField(updater, "publishPolicy", new TrustPublishPolicy());
+		Mockito.when(trustBulkWriter.write(Mockito.any(TrustEntry.class)))
+				.thenAnswer(invocation -> CompletableFuture.completedFuture(invocation.getArguments()[0]));
+		Mockito.when(trustBulkWriter.writeNow(Mockito.anyList())).thenAnswer(invocation -> ((List<TrustEntry>) invocation.getArguments()[0]).stream()
+				.map(CompletableFuture::completedFuture).collect(Collectors.toList()));
+	}
+
+	@Test
+	public void testUpdateEntries0() throws Exception {
+		TrustEntry te = new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "sr-1");
+		Mockito.when(trustService.calcAdaptiveResourceTrust(Mockito.anyList(), Mockito.anyMap())).thenReturn(Collections.singletonMap("sr-1", 44.0));
+
+		updater.updateEntries(Arrays.asList(te), new HashMap<>());
+
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).write(te);
+		Mockito.verify(amqpService, Mockito.times(1)).publishAdaptiveResourceTrustUpdate(te);
+	}
+
+	@Test
+	public void testUpdateEntries1() throws Exception {
+		TrustEntry te = new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "sr-1");
+		te.setValue(44.0);
+		Mockito.when(trustService.calcAdaptiveResourceTrust(Mockito.anyList(), Mockito.anyMap())).thenReturn(Collections.singletonMap("sr-1", 44.0));
+
+		updater.updateEntries(Arrays.asList(te), new HashMap<>());
+
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).write(te);
+		Mockito.verify(amqpService, Mockito.never()).publishAdaptiveResourceTrustUpdate(Mockito.any(TrustEntry.class));
+	}
+
+	@Test
+	public void testUpdateEntries2() throws Exception {
+		TrustEntry te = new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "sr-1");
+		te.setValue(44.0);
+		Mockito.when(trustService.calcAdaptiveResourceTrust(Mockito.anyList(), Mockito.anyMap())).thenReturn(Collections.singletonMap("sr-1", 44.1));
+
+		updater.updateEntries(Arrays.asList(te), new HashMap<>());
+
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).write(te);
+		Mockito.verify(amqpService, Mockito.times(1)).publishAdaptiveResourceTrustUpdate(te);
+	}
+
+	@Test
+	public void testResourceTrustChanged() throws Exception {
+		ReflectionTestUtils.setField(updater, "chunkSize", 2);
+		TrustEntry te = new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "sr-1");
+		Mockito.when(trustRepository.findARTEntriesByResourceIds(Mockito.anyCollection())).thenReturn(Arrays.asList(te)).thenReturn(new ArrayList<>());
+		Mockito.when(trustService.calcAdaptiveResourceTrust(Mockito.anyList(), Mockito.anyMap())).thenReturn(Collections.singletonMap("sr-1", 44.0));
+
+		updater.resourceTrustChanged(Arrays.asList("sr-1", "sr-2", "sr-3"));
+
+		Mockito.verify(trustRepository, Mockito.times(2)).findARTEntriesByResourceIds(Mockito.anyCollection());
+		Mockito.verify(trustService, Mockito.times(1)).calcAdaptiveResourceTrust(Mockito.anyList(), Mockito.anyMap());
+		// written on its own, entries pending from the trust cycles are not flushed
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).writeNow(Arrays.asList(te));
+		Mockito.verify(trustBulkWriter, Mockito.never()).write(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.never()).flush();
+		Mockito.verify(amqpService, Mockito.times(1)).publishAdaptiveResourceTrustUpdate(te);
+		Mockito.verify(amqpService, Mockito.times(1)).flushBatches();
+	}
+
+	@Test
+	public void testResourceTrustChangedDisabled() throws Exception {
+		ReflectionTestUtils.setField(updater, "incremental", false);
+
+		updater.resourceTrustChanged(Arrays.asList("sr-1"));
+		updater.platformReputationChanged(Arrays.asList(new TrustEntry(Type.PLATFORM_REPUTATION, "p-1", null)));
+
+		Mockito.verifyZeroInteractions(trustRepository, trustService, trustBulkWriter);
+	}
+
+	@Test
+	public void testPlatformReputationChanged() throws Exception {
+		TrustEntry pr = new TrustEntry(Type.PLATFORM_REPUTATION, "p-1", null);
+		pr.setValue(90.0);
+		List<TrustEntry> entries = Arrays.asList(new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "sr-1"),
+				new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "sr-2"));
+		Mockito.when(trustRepository.streamEntriesByPlatforms(Collections.singleton("p-1"), Type.ADAPTIVE_RESOURCE_TRUST)).thenReturn(entries.stream());
+		Map<String, Double> artValues = new HashMap<>();
+		artValues.put("sr-1", 40.0);
+		artValues.put("sr-2", 50.0);
+		Mockito.when(trustService.calcAdaptiveResourceTrust(Mockito.anyList(), Mockito.anyMap())).thenReturn(artValues);
+
+		updater.platformReputationChanged(Arrays.asList(pr));
+
+		Mockito.verify(trustService, Mockito.times(1)).calcAdaptiveResourceTrust(Mockito.eq(entries), Mockito.eq(Collections.singletonMap("p-1", pr)));
+		Mockito.verify(trustBulkWriter, Mockito.times(2)).write(Mockito.any(TrustEntry.class));
+		Mockito.verify(amqpService, Mockito.times(2)).publishAdaptiveResourceTrustUpdate(Mockito.any(TrustEntry.class));
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).flush();
+	}
+
+	@Test
+	public void testUpdateUnconverged() throws Exception {
+		TrustEntry te = new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "sr-1");
+		te.setValue(40.0);
+		Mockito.when(trustService.calcAdaptiveResourceTrust(Mockito.anyList(), Mockito.anyMap())).thenReturn(Collections.singletonMap("sr-1", 45.0))
+				.thenReturn(Collections.singletonMap("sr-1", 45.0));
+		Mockito.when(trustRepository.findARTEntriesByResourceIds(Mockito.anyCollection())).thenReturn(Arrays.asList(te));
+
+		// value still moving -> stepped again by the next cycle
+		updater.updateEntries(Arrays.asList(te), new HashMap<>());
+		assertEquals(1, updater.updateUnconverged(new HashMap<>()));
+		Mockito.verify(trustRepository, Mockito.times(1)).findARTEntriesByResourceIds(Arrays.asList("sr-1"));
+
+		// value stable -> converged
+		assertEquals(0, updater.updateUnconverged(new HashMap<>()));
+		Mockito.verify(trustRepository, Mockito.times(1)).findARTEntriesByResourceIds(Mockito.anyCollection());
+	}
+}
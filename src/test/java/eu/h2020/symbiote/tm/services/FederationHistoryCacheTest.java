@@ -0,0 +1,83 @@
+package eu.h2020.symbiote.tm.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import eu.h2020.symbiote.cloud.federation.model.FederationHistory;
+
+@RunWith(SpringRunner.class)
+public class FederationHistoryCacheTest {
+
+	@Test
+	public void testGetPut() throws Exception {
+		FederationHistoryCache cache = new FederationHistoryCache(60000, 10);
+		List<FederationHistory> history = new ArrayList<>();
+		history.add(new FederationHistory("f-1"));
+
+		assertEquals(null, cache.get("p-1"));
+		cache.put("p-1", history, cache.generation());
+		assertEquals(history, cache.get("p-1"));
+
+		Map<String, Number> metrics = cache.metrics().stream().collect(Collectors.toMap(Metric::getName, Metric::getValue));
+		assertEquals(1L, metrics.get("trust.federation_history.cache.hits"));
+		assertEquals(1L, metrics.get("trust.federation_history.cache.misses"));
+		assertEquals(1, metrics.get("trust.federation_history.cache.size"));
+	}
+
+	@Test
+	public void testExpiry() throws Exception {
+		FederationHistoryCache cache = new FederationHistoryCache(-1, 10);
+		cache.put("p-1", new ArrayList<>(), 0L);
+		assertEquals(null, cache.get("p-1"));
+	}
+
+	@Test
+	public void testMaxSize() throws Exception {
+		FederationHistoryCache cache = new FederationHistoryCache(60000, 2);
+		cache.put("p-1", new ArrayList<>(), 0L);
+		cache.put("p-2", new ArrayList<>(), 0L);
+		cache.get("p-1");
+		cache.put("p-3", new ArrayList<>(), 0L);
+
+		assertEquals(null, cache.get("p-2"));
+		assertEquals(0, cache.get("p-1").size());
+		assertEquals(0, cache.get("p-3").size());
+	}
+
+	@Test
+	public void testInvalidate() throws Exception {
+		FederationHistoryCache cache = new FederationHistoryCache(60000, 10);
+		cache.put("p-1", new ArrayList<>(), 0L);
+		cache.put("p-2", new ArrayList<>(), 0L);
+		cache.invalidate(Arrays.asList("p-1", "p-3"));
+
+		assertEquals(null, cache.get("p-1"));
+		assertEquals(0, cache.get("p-2").size());
+	}
+
+	@Test
+	public void testPutAfterInvalidate() throws Exception {
+		FederationHistoryCache cache = new FederationHistoryCache(60000, 10);
+		long generation = cache.generation();
+		cache.invalidate(Arrays.asList("p-1"));
+
+		// reply requested before the invalidation
+		assertFalse(cache.put("p-1", new ArrayList<>(), generation));
+		assertEquals(null, cache.get("p-1"));
+
+		assertTrue(cache.put("p-1", new ArrayList<>(), cache.generation()));
+		assertEquals(0, cache.get("p-1").size());
+	}
+}
@@ -0,0 +1,170 @@
+package eu.h2020.symbiote.tm.services;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry.Type;
+import eu.h2020.symbiote.tm.repositories.TrustBulkWriter;
+import eu.h2020.symbiote.tm.repositories.TrustRepository;
+
+@RunWith(SpringRunner.class)
+public class ResourceTrustFastLaneTest {
+	@Mock
+	private TrustCalculationService trustService;
+
+	@Mock
+	private TrustAMQPService amqpService;
+
+	@Mock
+	private TrustRepository trustRepository;
+
+	@Mock
+	private TrustBulkWriter trustBulkWriter;
+
+	@Mock
+	private ResourceTrustFingerprints fingerprints;
+
+	@InjectMocks
+	private final ResourceTrustFastLane fastLane = new ResourceTrustFastLane();
+
+	@Before
+	public void setup() throws Exception {
+		ReflectionTestUtils.setField(fastLane, "ownPlatformId", "p-1");
+		ReflectionTestUtils.setField(fastLane, "enabled", true);
+		ReflectionTestUtils.setField(fastLane, "batchSize", 100);
+		ReflectionTestUtils.setField(fastLane, "publishPolicy", new TrustPublishPolicy());
+		Mockito.when(trustBulkWriter.write(Mockito.any(TrustEntry.class)))
+				.thenAnswer(invocation -> CompletableFuture.completedFuture(invocation.getArguments()[0]));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testProcess() throws Exception {
+		TrustEntry te1 = new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-1");
+		TrustEntry te2 = new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-2");
+		TrustEntry foreign = new TrustEntry(Type.RESOURCE_TRUST, "p-2", "r-3");
+		Mockito.when(trustRepository.findRTEntriesByResourceIds(Mockito.anyCollection())).thenReturn(Arrays.asList(te1, te2, foreign));
+		Mockito.when(trustService.calcChangedResourceTrust(Mockito.anyCollection(), Mockito.anyCollection())).thenReturn(Collections.singletonMap("r-2", 80.0));
+
+		fastLane.violationsReceived(Arrays.asList("r-1", "r-3"));
+		fastLane.resourcesAdded(Arrays.asList("r-2", null));
+		fastLane.process();
+
+		ArgumentCaptor<List> resIds = ArgumentCaptor.forClass(List.class);
+		Mockito.verify(trustRepository, Mockito.times(1)).findRTEntriesByResourceIds(resIds.capture());
+		assertEquals(Arrays.asList("r-2", "r-1", "r-3"), resIds.getValue());
+		Mockito.verify(trustService, Mockito.times(1)).calcChangedResourceTrust(Mockito.eq(Arrays.asList("r-1", "r-2")), Mockito.anyCollection());
+
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).write(te2);
+		Mockito.verify(trustBulkWriter, Mockito.never()).write(te1);
+		Mockito.verify(amqpService, Mockito.times(1)).publishResourceTrustUpdate(te2);
+		assertEquals(Double.valueOf(80.0), te2.getValue());
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).flush();
+		Mockito.verify(amqpService, Mockito.times(1)).flushBatches();
+		Mockito.verify(fingerprints, Mockito.never()).remove(Mockito.anyCollection());
+
+		// queue is drained
+		fastLane.process();
+		Mockito.verify(trustRepository, Mockito.times(1)).findRTEntriesByResourceIds(Mockito.anyCollection());
+	}
+
+	@Test
+	public void testProcessWriteFailure() throws Exception {
+		TrustEntry te = new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-1");
+		Mockito.when(trustRepository.findRTEntriesByResourceIds(Mockito.anyCollection())).thenReturn(Arrays.asList(te));
+		Mockito.when(trustService.calcChangedResourceTrust(Mockito.anyCollection(), Mockito.anyCollection())).thenReturn(Collections.singletonMap("r-1", 80.0));
+		CompletableFuture<TrustEntry> failed = new CompletableFuture<>();
+		failed.completeExceptionally(new RuntimeException("connection lost"));
+		Mockito.when(trustBulkWriter.write(te)).thenReturn(failed);
+
+		fastLane.resourcesAdded(Arrays.asList("r-1"));
+		fastLane.process();
+
+		Mockito.verify(amqpService, Mockito.never()).publishResourceTrustUpdate(Mockito.any(TrustEntry.class));
+		Mockito.verify(fingerprints, Mockito.times(1)).remove(Collections.singletonList("r-1"));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testProcessRequeuesSkipped() throws Exception {
+		TrustEntry te1 = new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-1");
+		TrustEntry te2 = new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-2");
+		Mockito.when(trustRepository.findRTEntriesByResourceIds(Mockito.anyCollection())).thenReturn(Arrays.asList(te1, te2));
+		Mockito.when(trustService.calcChangedResourceTrust(Mockito.anyCollection(), Mockito.anyCollection())).thenAnswer(invocation -> {
+			// Monitoring requests rejected by the bulkhead
+			((Collection<String>) invocation.getArguments()[1]).addAll((Collection<String>) invocation.getArguments()[0]);
+			return Collections.emptyMap();
+		}).thenReturn(Collections.emptyMap());
+
+		fastLane.violationsReceived(Arrays.asList("r-1"));
+		fastLane.resourcesAdded(Arrays.asList("r-2"));
+		fastLane.process();
+
+		Mockito.verify(trustBulkWriter, Mockito.never()).write(Mockito.any(TrustEntry.class));
+		Map<String, Number> metrics = fastLane.metrics().stream().collect(Collectors.toMap(Metric::getName, Metric::getValue));
+		assertEquals(1, metrics.get("trust.resource_trust.fast_lane.new"));
+		assertEquals(1, metrics.get("trust.resource_trust.fast_lane.violated"));
+
+		// retried with the new resource first
+		fastLane.process();
+		ArgumentCaptor<List> resIds = ArgumentCaptor.forClass(List.class);
+		Mockito.verify(trustRepository, Mockito.times(2)).findRTEntriesByResourceIds(resIds.capture());
+		assertEquals(Arrays.asList("r-2", "r-1"), resIds.getValue());
+		assertEquals(0, fastLane.metrics().stream().mapToInt(m -> m.getValue().intValue()).sum());
+	}
+
+	@Test
+	public void testProcessChunks() throws Exception {
+		ReflectionTestUtils.setField(fastLane, "batchSize", 2);
+		Mockito.when(trustRepository.findRTEntriesByResourceIds(Mockito.anyCollection())).thenReturn(Collections.emptyList());
+
+		fastLane.resourcesAdded(Arrays.asList("r-1", "r-2", "r-3"));
+		fastLane.violationsReceived(Arrays.asList("r-1"));
+		fastLane.process();
+
+		Mockito.verify(trustRepository, Mockito.times(2)).findRTEntriesByResourceIds(Mockito.anyCollection());
+		Mockito.verify(trustService, Mockito.never()).calcChangedResourceTrust(Mockito.anyCollection());
+	}
+
+	@Test
+	public void testDisabled() throws Exception {
+		ReflectionTestUtils.setField(fastLane, "enabled", false);
+
+		fastLane.resourcesAdded(Arrays.asList("r-1"));
+		fastLane.violationsReceived(Arrays.asList("r-2"));
+		fastLane.process();
+
+		Mockito.verify(trustRepository, Mockito.never()).findRTEntriesByResourceIds(Mockito.anyCollection());
+		Mockito.verify(trustBulkWriter, Mockito.never()).flush();
+	}
+
+	@Test
+	public void testFailureIsolated() throws Exception {
+		Mockito.when(trustRepository.findRTEntriesByResourceIds(Mockito.anyCollection())).thenThrow(new RuntimeException("connection lost"));
+
+		fastLane.resourcesAdded(Arrays.asList("r-1"));
+		fastLane.process();
+
+		Mockito.verify(trustBulkWriter, Mockito.times(1)).flush();
+		assertEquals(2, fastLane.metrics().size());
+	}
+}
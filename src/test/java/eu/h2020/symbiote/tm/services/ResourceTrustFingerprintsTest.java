@@ -0,0 +1,42 @@
+package eu.h2020.symbiote.tm.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.test.context.junit4.SpringRunner;
+
+@RunWith(SpringRunner.class)
+public class ResourceTrustFingerprintsTest {
+
+	@Test
+	public void testUpdate() {
+		ResourceTrustFingerprints fingerprints = new ResourceTrustFingerprints();
+
+		assertTrue(fingerprints.update("r-1", 0.8, 0));
+		assertFalse(fingerprints.update("r-1", 0.8, 0));
+		assertTrue(fingerprints.update("r-1", 0.8, 1));
+		assertTrue(fingerprints.update("r-1", 0.7, 1));
+		assertTrue(fingerprints.update("r-1", null, 1));
+		assertFalse(fingerprints.update("r-1", null, 1));
+		assertTrue(fingerprints.update("r-2", null, 1));
+		assertEquals(2, fingerprints.size());
+	}
+
+	@Test
+	public void testRemove() {
+		ResourceTrustFingerprints fingerprints = new ResourceTrustFingerprints();
+		fingerprints.update("r-1", 0.8, 0);
+		fingerprints.update("r-2", 0.8, 0);
+
+		fingerprints.remove(Arrays.asList("r-1", "r-3"));
+
+		assertEquals(1, fingerprints.size());
+		assertTrue(fingerprints.update("r-1", 0.8, 0));
+		assertFalse(fingerprints.update("r-2", 0.8, 0));
+	}
+}
@@ -0,0 +1,70 @@
+package eu.h2020.symbiote.tm.services;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import eu.h2020.symbiote.cloud.sla.model.Violation;
+import eu.h2020.symbiote.tm.repositories.SLAViolationRepository;
+
+@RunWith(SpringRunner.class)
+public class SLAViolationCounterTest {
+	private static final long HOUR = 60 * 60 * 1000L;
+
+	@Mock
+	private SLAViolationRepository violationRepository;
+
+	private SLAViolationCounter counter;
+
+	@Before
+	public void setup() throws Exception {
+		long now = System.currentTimeMillis();
+		Map<Long, Long> periods = new HashMap<>();
+		periods.put(now - now % HOUR, 3L);
+		periods.put(now - now % HOUR - 2 * HOUR, 2L);
+		// outside of the 24h window
+		periods.put(now - now % HOUR - 30 * HOUR, 7L);
+		Map<String, Map<Long, Long>> counts = new HashMap<>();
+		counts.put("r-1", periods);
+
+		Mockito.when(violationRepository.countRecentViolationsByResourceAndPeriod(Mockito.any(Date.class), Mockito.eq(HOUR))).thenReturn(counts);
+
+		counter = new SLAViolationCounter(violationRepository, 24);
+		counter.init();
+	}
+
+	@Test
+	public void testRebuild() throws Exception {
+		assertEquals(5, counter.countRecent("r-1"));
+		assertEquals(0, counter.countRecent("r-2"));
+	}
+
+	@Test
+	public void testRecord() throws Exception {
+		counter.record(createViolation("r-1", new Date()));
+		counter.record(createViolation("r-2", new Date()));
+		counter.record(createViolation("r-2", new Date(System.currentTimeMillis() - 5 * HOUR)));
+		counter.record(createViolation("r-2", new Date(System.currentTimeMillis() - 25 * HOUR)));
+		counter.record(createViolation(null, new Date()));
+		counter.record(null);
+
+		assertEquals(6, counter.countRecent("r-1"));
+		assertEquals(2, counter.countRecent("r-2"));
+	}
+
+	private Violation createViolation(String resId, Date date) {
+		Violation v = Mockito.mock(Violation.class);
+		Mockito.when(v.getDeviceId()).thenReturn(resId);
+		Mockito.when(v.getDate()).thenReturn(date);
+		return v;
+	}
+}
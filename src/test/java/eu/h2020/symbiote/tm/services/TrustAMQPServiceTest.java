@@ -2,6 +2,8 @@ package eu.h2020.symbiote.tm.services;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Before;
@@ -10,11 +12,16 @@ import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.springframework.amqp.AmqpException;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.TopicExchange;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate;
+import org.springframework.amqp.rabbit.AsyncRabbitTemplate.RabbitConverterFuture;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.util.concurrent.FailureCallback;
+import org.springframework.util.concurrent.SuccessCallback;
 
 import eu.h2020.symbiote.cloud.federation.model.FederationHistory;
 import eu.h2020.symbiote.cloud.federation.model.FederationHistoryResponse;
@@ -26,12 +33,24 @@ public class TrustAMQPServiceTest {
 	@Mock
 	private RabbitTemplate template;
 
+	@Mock
+	private AsyncRabbitTemplate asyncTemplate;
+
+	@Mock
+	private RabbitConverterFuture<Object> replyFuture;
+
 	@Mock
 	private Queue federationHistoryQueue;
 
 	@Mock
 	private TopicExchange trustTopic;
 
+	@Mock
+	private TopicExchange trustBatchTopic;
+
+	@Mock
+	private FederationHistoryCache federationHistoryCache;
+
 	@InjectMocks
 	private final TrustAMQPService service = new TrustAMQPService();
 
@@ -39,6 +58,7 @@ public class TrustAMQPServiceTest {
 	public void setup() throws Exception {
 		Mockito.when(federationHistoryQueue.getName()).thenReturn("symbIoTe.federation.get_federation_history");
 		Mockito.when(trustTopic.getName()).thenReturn("trustTopic");
+		Mockito.when(trustBatchTopic.getName()).thenReturn("trustBatchTopic");
 		ReflectionTestUtils.setField(service, "routingKeyResTrustUpdated", "routingKeyResTrustUpdated");
 		ReflectionTestUtils.setField(service, "routingKeyPlatfRepUpdated", "routingKeyPlatfRepUpdated");
 		ReflectionTestUtils.setField(service, "routingKeyAdaptiveResTrustUpdated", "routingKeyAdaptiveResTrustUpdated");
@@ -71,6 +91,91 @@ public class TrustAMQPServiceTest {
 
 		assertEquals(1, history.size());
 		assertEquals("abc", history.get(0).getFederationId());
+		Mockito.verify(federationHistoryCache, Mockito.times(1)).put(pId, fhr.getEvents(), 0L);
+	}
+
+	@Test
+	public void testFetchFederationHistoryCached() throws Exception {
+		String pId = "p-789";
+		List<FederationHistory> cached = new ArrayList<>();
+		cached.add(new FederationHistory("def"));
+		Mockito.when(federationHistoryCache.get(pId)).thenReturn(cached);
+
+		List<FederationHistory> history = service.fetchFederationHistory(pId);
+
+		Mockito.verify(template, Mockito.never()).convertSendAndReceive(Mockito.anyString(), Mockito.anyString());
+		assertEquals(cached, history);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFetchFederationHistoryAsyncSuccess() throws Exception {
+		String pId = "p-456";
+		FederationHistoryResponse fhr = new FederationHistoryResponse(pId);
+		fhr.getEvents().add(new FederationHistory("abc"));
+		Mockito.when(asyncTemplate.convertSendAndReceive(Mockito.anyString(), Mockito.anyString())).thenReturn(replyFuture);
+		Mockito.doAnswer(invocation -> {
+			((SuccessCallback<Object>) invocation.getArguments()[0]).onSuccess(fhr);
+			return null;
+		}).when(replyFuture).addCallback(Mockito.any(SuccessCallback.class), Mockito.any(FailureCallback.class));
+
+		List<FederationHistory> history = service.fetchFederationHistoryAsync(pId).get();
+
+		Mockito.verify(asyncTemplate, Mockito.times(1)).convertSendAndReceive(Mockito.eq("symbIoTe.federation.get_federation_history"), Mockito.eq(pId));
+		Mockito.verify(template, Mockito.never()).convertSendAndReceive(Mockito.anyString(), Mockito.anyString());
+		assertEquals(1, history.size());
+		Mockito.verify(federationHistoryCache, Mockito.times(1)).put(pId, fhr.getEvents(), 0L);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFetchFederationHistoryAsyncInvalidatedWhileInFlight() throws Exception {
+		String pId = "p-456";
+		FederationHistoryResponse fhr = new FederationHistoryResponse(pId);
+		fhr.getEvents().add(new FederationHistory("abc"));
+		Mockito.when(federationHistoryCache.generation()).thenReturn(3L);
+		Mockito.when(asyncTemplate.convertSendAndReceive(Mockito.anyString(), Mockito.anyString())).thenReturn(replyFuture);
+		Mockito.doAnswer(invocation -> {
+			// federations changed before the reply arrived
+			Mockito.when(federationHistoryCache.generation()).thenReturn(4L);
+			((SuccessCallback<Object>) invocation.getArguments()[0]).onSuccess(fhr);
+			return null;
+		}).when(replyFuture).addCallback(Mockito.any(SuccessCallback.class), Mockito.any(FailureCallback.class));
+
+		List<FederationHistory> history = service.fetchFederationHistoryAsync(pId).get();
+
+		assertEquals(1, history.size());
+		// the generation taken before sending decides whether the reply is cached
+		Mockito.verify(federationHistoryCache, Mockito.times(1)).put(pId, fhr.getEvents(), 3L);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFetchFederationHistoryAsyncTimeout() throws Exception {
+		String pId = "p-123";
+		Mockito.when(asyncTemplate.convertSendAndReceive(Mockito.anyString(), Mockito.anyString())).thenReturn(replyFuture);
+		Mockito.doAnswer(invocation -> {
+			((FailureCallback) invocation.getArguments()[1]).onFailure(new AmqpException("Reply timed out"));
+			return null;
+		}).when(replyFuture).addCallback(Mockito.any(SuccessCallback.class), Mockito.any(FailureCallback.class));
+
+		List<FederationHistory> history = service.fetchFederationHistoryAsync(pId).get();
+
+		assertEquals(0, history.size());
+		Mockito.verify(federationHistoryCache, Mockito.never()).put(Mockito.anyString(), Mockito.anyList(), Mockito.anyLong());
+	}
+
+	@Test
+	public void testFetchFederationHistoryAsyncCached() throws Exception {
+		String pId = "p-789";
+		List<FederationHistory> cached = new ArrayList<>();
+		cached.add(new FederationHistory("def"));
+		Mockito.when(federationHistoryCache.get(pId)).thenReturn(cached);
+
+		List<FederationHistory> history = service.fetchFederationHistoryAsync(pId).get();
+
+		Mockito.verify(asyncTemplate, Mockito.never()).convertSendAndReceive(Mockito.anyString(), Mockito.anyString());
+		assertEquals(cached, history);
 	}
 
 	@Test
@@ -99,4 +204,66 @@ public class TrustAMQPServiceTest {
 		Mockito.verify(trustTopic, Mockito.times(1)).getName();
 		Mockito.verify(template, Mockito.times(1)).convertAndSend(Mockito.eq("trustTopic"), Mockito.eq("routingKeyAdaptiveResTrustUpdated"), Mockito.eq(te));
 	}
+
+	@Test
+	public void testPublishBatches() throws Exception {
+		ReflectionTestUtils.setField(service, "batchEnabled", true);
+		ReflectionTestUtils.setField(service, "singleMessages", false);
+		ReflectionTestUtils.setField(service, "batchSize", 2);
+
+		TrustEntry te1 = new TrustEntry();
+		TrustEntry te2 = new TrustEntry();
+		TrustEntry te3 = new TrustEntry();
+		service.publishResourceTrustUpdate(te1);
+		Mockito.verify(template, Mockito.never()).convertAndSend(Mockito.anyString(), Mockito.anyString(), Mockito.any(Object.class));
+
+		// batch size reached
+		service.publishResourceTrustUpdate(te2);
+		Mockito.verify(template, Mockito.times(1)).convertAndSend(Mockito.eq("trustBatchTopic"), Mockito.eq("routingKeyResTrustUpdated"),
+				Mockito.eq(Arrays.asList(te1, te2)));
+
+		// pending batches are sent on flush
+		service.publishPlatformReputationUpdate(te3);
+		service.flushBatches();
+		Mockito.verify(template, Mockito.times(1)).convertAndSend(Mockito.eq("trustBatchTopic"), Mockito.eq("routingKeyPlatfRepUpdated"),
+				Mockito.eq(Arrays.asList(te3)));
+
+		service.flushBatches();
+		Mockito.verify(template, Mockito.times(2)).convertAndSend(Mockito.anyString(), Mockito.anyString(), Mockito.any(Object.class));
+	}
+
+	@Test
+	public void testPublishBatchesWithSingleMessages() throws Exception {
+		ReflectionTestUtils.setField(service, "batchEnabled", true);
+		ReflectionTestUtils.setField(service, "singleMessages", true);
+		ReflectionTestUtils.setField(service, "batchSize", 10);
+
+		TrustEntry te = new TrustEntry();
+		service.publishAdaptiveResourceTrustUpdate(te);
+		service.flushBatches();
+
+		Mockito.verify(template, Mockito.times(1)).convertAndSend(Mockito.eq("trustTopic"), Mockito.eq("routingKeyAdaptiveResTrustUpdated"), Mockito.eq(te));
+		Mockito.verify(template, Mockito.times(1)).convertAndSend(Mockito.eq("trustBatchTopic"), Mockito.eq("routingKeyAdaptiveResTrustUpdated"),
+				Mockito.eq(Arrays.asList(te)));
+	}
+
+	@Test
+	public void testPublishConflated() throws Exception {
+		ReflectionTestUtils.setField(service, "conflationEnabled", true);
+
+		TrustEntry te1 = new TrustEntry(TrustEntry.Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "r-1");
+		te1.setValue(40.0);
+		TrustEntry te2 = new TrustEntry(TrustEntry.Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "r-1");
+		te2.setValue(41.0);
+		service.publishAdaptiveResourceTrustUpdate(te1);
+		service.publishAdaptiveResourceTrustUpdate(te2);
+		Mockito.verify(template, Mockito.never()).convertAndSend(Mockito.anyString(), Mockito.anyString(), Mockito.any(Object.class));
+
+		service.flushConflated();
+		service.flushConflated();
+
+		Mockito.verify(template, Mockito.times(1)).convertAndSend(Mockito.anyString(), Mockito.anyString(), Mockito.any(Object.class));
+		Mockito.verify(template, Mockito.times(1)).convertAndSend(Mockito.eq("trustTopic"), Mockito.eq("routingKeyAdaptiveResTrustUpdated"), Mockito.same(te2));
+		assertEquals(1L, service.metrics().iterator().next().getValue());
+	}
 }
\ No newline at end of file
@@ -1,23 +1,33 @@
 package eu.h2020.symbiote.tm.services;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import eu.h2020.symbiote.cloud.federation.model.FederationHistory;
-import eu.h2020.symbiote.cloud.sla.model.Violation;
 import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
 import eu.h2020.symbiote.tm.interfaces.rest.TrustStatsLoader;
-import eu.h2020.symbiote.tm.repositories.SLAViolationRepository;
 import eu.h2020.symbiote.tm.repositories.TrustRepository;
 
 @RunWith(SpringRunner.class)
@@ -33,21 +43,42 @@ public class TrustCalculationServiceTest {
 	private TrustRepository repository;
 
 	@Mock
-	private SLAViolationRepository violationRepository;
+	private SLAViolationCounter violationCounter;
+
+	@Mock
+	private ResourceTrustFingerprints fingerprints;
 
 	@InjectMocks
 	private final TrustCalculationService service = new TrustCalculationService();
 
+	private ThreadPoolTaskExecutor executor;
+
+	@Before
+	public void setup() throws Exception {
+		executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(3);
+		executor.initialize();
+		ReflectionTestUtils.setField(service, "reputationSourceExecutor", executor);
+		ReflectionTestUtils.setField(service, "reputationDeadline", 1000L);
+		ReflectionTestUtils.setField(service, "dirtyTracking", true);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		executor.shutdown();
+	}
+
 	@Test
 	public void testGetPlatformReputationNull() {
 		String pId = "p-123";
-		Mockito.when(amqpService.fetchFederationHistory(Mockito.anyString())).thenReturn(null).thenReturn(new ArrayList<>());
+		Mockito.when(amqpService.fetchFederationHistoryAsync(Mockito.anyString())).thenReturn(CompletableFuture.completedFuture(null))
+				.thenReturn(CompletableFuture.completedFuture(new ArrayList<>()));
 		Mockito.when(trustStatsLoader.getBarteringStats(Mockito.anyString(), Mockito.any())).thenReturn(null);
 		Mockito.when(trustStatsLoader.getPlatformADStats(Mockito.anyString())).thenReturn(null);
 
 		Double val = service.calcPlatformReputation(pId);
 
-		Mockito.verify(amqpService, Mockito.times(1)).fetchFederationHistory(pId);
+		Mockito.verify(amqpService, Mockito.times(1)).fetchFederationHistoryAsync(pId);
 		assertEquals(null, val);
 
 		val = service.calcPlatformReputation(pId);
@@ -59,19 +90,19 @@ public class TrustCalculationServiceTest {
 		String pId = "p-123";
 
 		List<FederationHistory> fhList = generateHistory();
-		Mockito.when(amqpService.fetchFederationHistory(Mockito.anyString())).thenReturn(fhList);
+		Mockito.when(amqpService.fetchFederationHistoryAsync(Mockito.anyString())).thenReturn(CompletableFuture.completedFuture(fhList));
 		Mockito.when(trustStatsLoader.getBarteringStats(Mockito.anyString(), Mockito.any())).thenReturn(null);
 		Mockito.when(trustStatsLoader.getPlatformADStats(Mockito.anyString())).thenReturn(null);
 
 		Double val = service.calcPlatformReputation(pId);
-		Mockito.verify(amqpService, Mockito.times(1)).fetchFederationHistory(pId);
+		Mockito.verify(amqpService, Mockito.times(1)).fetchFederationHistoryAsync(pId);
 		assertEquals(Double.valueOf(10), val);
 	}
 
 	@Test
 	public void testGetPlatformReputationBt() {
 		String pId = "p-123";
-		Mockito.when(amqpService.fetchFederationHistory(Mockito.anyString())).thenReturn(null);
+		Mockito.when(amqpService.fetchFederationHistoryAsync(Mockito.anyString())).thenReturn(CompletableFuture.completedFuture(null));
 		Mockito.when(trustStatsLoader.getBarteringStats(Mockito.anyString(), Mockito.any())).thenReturn(101).thenReturn(51).thenReturn(26).thenReturn(13)
 				.thenReturn(7).thenReturn(6).thenReturn(null);
 		Mockito.when(trustStatsLoader.getPlatformADStats(Mockito.anyString())).thenReturn(null);
@@ -88,7 +119,7 @@ public class TrustCalculationServiceTest {
 	@Test
 	public void testGetPlatformReputationAd() {
 		String pId = "p-123";
-		Mockito.when(amqpService.fetchFederationHistory(Mockito.anyString())).thenReturn(null);
+		Mockito.when(amqpService.fetchFederationHistoryAsync(Mockito.anyString())).thenReturn(CompletableFuture.completedFuture(null));
 		Mockito.when(trustStatsLoader.getBarteringStats(Mockito.anyString(), Mockito.any())).thenReturn(null);
 		Mockito.when(trustStatsLoader.getPlatformADStats(Mockito.anyString())).thenReturn(9).thenReturn(99).thenReturn(999).thenReturn(9999).thenReturn(99999)
 				.thenReturn(100000);
@@ -107,18 +138,132 @@ public class TrustCalculationServiceTest {
 		assertEquals(Double.valueOf(10), val);
 	}
 
+	@Test
+	public void testGetPlatformReputationPrefetchedAd() {
+		String pId = "p-123";
+		Mockito.when(amqpService.fetchFederationHistoryAsync(Mockito.anyString())).thenReturn(CompletableFuture.completedFuture(null));
+		Mockito.when(trustStatsLoader.getBarteringStats(Mockito.anyString(), Mockito.any())).thenReturn(null);
+		Map<String, Integer> adStats = new HashMap<>();
+		adStats.put(pId, 99);
+
+		assertEquals(Double.valueOf(95), service.calcPlatformReputation(pId, adStats));
+		assertEquals(null, service.calcPlatformReputation("p-456", adStats));
+		Mockito.verify(trustStatsLoader, Mockito.never()).getPlatformADStats(Mockito.anyString());
+	}
+
+	@Test
+	public void testGetPlatformReputationDeadline() throws Exception {
+		String pId = "p-123";
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		Mockito.when(amqpService.fetchFederationHistoryAsync(Mockito.anyString())).thenReturn(CompletableFuture.completedFuture(generateHistory()));
+		Mockito.when(trustStatsLoader.getBarteringStats(Mockito.anyString(), Mockito.any())).thenAnswer(invocation -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				interrupted.countDown();
+			}
+			return 101;
+		});
+		Mockito.when(trustStatsLoader.getPlatformADStats(Mockito.anyString())).thenReturn(null);
+		ReflectionTestUtils.setField(service, "reputationDeadline", 100L);
+
+		Double val = service.calcPlatformReputation(pId);
+
+		assertEquals(Double.valueOf(10), val);
+		// the blocked bartering call is interrupted and releases its thread
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+		release.countDown();
+	}
+
+	@Test
+	public void testGetPlatformReputationRejected() throws Exception {
+		ThreadPoolTaskExecutor saturated = new ThreadPoolTaskExecutor();
+		saturated.setCorePoolSize(1);
+		saturated.setMaxPoolSize(1);
+		saturated.setQueueCapacity(0);
+		saturated.initialize();
+		ReflectionTestUtils.setField(service, "reputationSourceExecutor", saturated);
+
+		CountDownLatch release = new CountDownLatch(1);
+		saturated.execute(() -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+
+		Mockito.when(amqpService.fetchFederationHistoryAsync(Mockito.anyString())).thenReturn(CompletableFuture.completedFuture(generateHistory()));
+		Map<String, Integer> adStats = new HashMap<>();
+
+		assertEquals(Double.valueOf(10), service.calcPlatformReputation("p-123", adStats));
+		Mockito.verify(trustStatsLoader, Mockito.never()).getBarteringStats(Mockito.anyString(), Mockito.any());
+
+		release.countDown();
+		saturated.shutdown();
+	}
+
+	@Test
+	public void testGetPlatformReputationPipelined() {
+		// the histories are only answered once all platforms were requested, awaiting p-1 first would miss its deadline
+		List<CompletableFuture<List<FederationHistory>>> requests = new ArrayList<>();
+		Mockito.when(amqpService.fetchFederationHistoryAsync(Mockito.anyString())).thenAnswer(invocation -> {
+			CompletableFuture<List<FederationHistory>> request = new CompletableFuture<>();
+			requests.add(request);
+			if (requests.size() == 3) {
+				requests.forEach(r -> r.complete(generateHistory()));
+			}
+			return request;
+		});
+		Mockito.when(trustStatsLoader.getBarteringStats(Mockito.anyString(), Mockito.any())).thenReturn(null);
+
+		Map<String, Double> vals = service.calcPlatformReputation(Arrays.asList("p-1", "p-2", "p-3"), new HashMap<>());
+
+		assertEquals(3, vals.size());
+		assertEquals(Double.valueOf(10), vals.get("p-1"));
+		assertEquals(Double.valueOf(10), vals.get("p-3"));
+	}
+
+	@Test
+	public void testGetPlatformReputationWindowDeadline() throws Exception {
+		CountDownLatch release = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(3);
+		Mockito.when(amqpService.fetchFederationHistoryAsync(Mockito.anyString())).thenReturn(CompletableFuture.completedFuture(generateHistory()));
+		// bartering of the first window never answers, the second window answers right away
+		Mockito.when(trustStatsLoader.getBarteringStats(Mockito.anyString(), Mockito.any())).thenAnswer(invocation -> {
+			if (Arrays.asList("p-1", "p-2", "p-3").contains(invocation.getArguments()[0])) {
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					interrupted.countDown();
+				}
+			}
+			return 101;
+		});
+		ReflectionTestUtils.setField(service, "reputationDeadline", 500L);
+
+		try {
+			// 6 platforms on 3 threads -> the second window gets its own deadline instead of the one used up by the first window
+			Map<String, Double> vals = service.calcPlatformReputation(Arrays.asList("p-1", "p-2", "p-3", "p-4", "p-5", "p-6"), new HashMap<>());
+
+			assertEquals(6, vals.size());
+			assertEquals(Double.valueOf(10), vals.get("p-1"));
+			assertEquals(Double.valueOf(10), vals.get("p-3"));
+			assertEquals(Double.valueOf(40), vals.get("p-4"));
+			assertEquals(Double.valueOf(40), vals.get("p-6"));
+			assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+			Mockito.verify(amqpService, Mockito.times(6)).fetchFederationHistoryAsync(Mockito.anyString());
+		} finally {
+			release.countDown();
+		}
+	}
+
 	@Test
 	public void testCalcResourceTrust() {
 		Mockito.when(trustStatsLoader.getResourceAvailabilityMetrics(Mockito.anyString())).thenReturn(null).thenReturn(0.8).thenReturn(0.8);
 
-		List<Violation> vList = new ArrayList<>();
-		vList.add(new Violation());
-		vList.add(new Violation());
-		vList.add(new Violation());
-		vList.add(new Violation());
-		vList.add(new Violation());
-		Mockito.when(violationRepository.findRecentViolationsByResourceId(Mockito.any(), Mockito.anyString())).thenReturn(null).thenReturn(vList)
-				.thenReturn(vList);
+		Mockito.when(violationCounter.countRecent(Mockito.anyString())).thenReturn(0L).thenReturn(5L);
 
 		Double val = service.calcResourceTrust("r-123");
 		assertEquals(null, val);
@@ -130,6 +275,35 @@ public class TrustCalculationServiceTest {
 		assertEquals(Double.valueOf(76), val);
 	}
 
+	@Test
+	public void testCalcChangedResourceTrust() {
+		Map<String, Double> avail = new HashMap<>();
+		avail.put("r-1", 0.8);
+		avail.put("r-2", 0.5);
+		avail.put("r-3", null);
+		Mockito.when(trustStatsLoader.getResourceAvailabilityMetrics(Mockito.anyCollection())).thenReturn(avail);
+		Mockito.when(violationCounter.countRecent("r-2")).thenReturn(10L);
+		Mockito.when(fingerprints.update("r-1", 0.8, 0L)).thenReturn(false);
+		Mockito.when(fingerprints.update("r-2", 0.5, 10L)).thenReturn(true);
+
+		Map<String, Double> vals = service.calcChangedResourceTrust(Arrays.asList("r-1", "r-2"));
+		Mockito.verify(trustStatsLoader, Mockito.times(1)).getResourceAvailabilityMetrics(Mockito.anyCollection());
+		Mockito.verify(trustStatsLoader, Mockito.never()).getResourceAvailabilityMetrics(Mockito.anyString());
+		assertEquals(1, vals.size());
+		assertEquals(Double.valueOf(40), vals.get("r-2"));
+
+		ReflectionTestUtils.setField(service, "dirtyTracking", false);
+		List<String> skipped = new ArrayList<>();
+		vals = service.calcChangedResourceTrust(Arrays.asList("r-1", "r-2", "r-3", "r-4"), skipped);
+		assertEquals(3, vals.size());
+		assertEquals(Double.valueOf(80), vals.get("r-1"));
+		// no stats -> no value, stats not requested -> skipped
+		assertTrue(vals.containsKey("r-3"));
+		assertEquals(null, vals.get("r-3"));
+		assertFalse(vals.containsKey("r-4"));
+		assertEquals(Arrays.asList("r-4"), skipped);
+	}
+
 	@Test
 	public void testCalcAdaptiveResourceTrustEmpty() {
 		Mockito.when(repository.getRTEntryByResourceId(Mockito.anyString())).thenReturn(null).thenReturn(new TrustEntry());
@@ -187,6 +361,42 @@ public class TrustCalculationServiceTest {
 		assertEquals(Double.valueOf(20.5), val);
 	}
 
+	@Test
+	public void testCalcAdaptiveResourceTrustBatch() {
+		TrustEntry rt1 = new TrustEntry(TrustEntry.Type.RESOURCE_TRUST, "p-1", "r-1");
+		rt1.updateEntry(10.0);
+		TrustEntry rt2 = new TrustEntry(TrustEntry.Type.RESOURCE_TRUST, "p-2", "r-2");
+		rt2.updateEntry(50.0);
+		Mockito.when(repository.findRTEntriesByResourceIds(Mockito.anyCollection())).thenReturn(Arrays.asList(rt1, rt2));
+
+		TrustEntry pr1 = new TrustEntry(TrustEntry.Type.PLATFORM_REPUTATION, "p-1", null);
+		pr1.updateEntry(90.1);
+		Mockito.when(repository.findPREntriesByPlatformIds(Mockito.anyCollection())).thenReturn(Arrays.asList(pr1));
+
+		TrustEntry art1 = new TrustEntry(TrustEntry.Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "r-1");
+		art1.setValue(40.0);
+		TrustEntry art2 = new TrustEntry(TrustEntry.Type.ADAPTIVE_RESOURCE_TRUST, "p-2", "r-2");
+		TrustEntry art3 = new TrustEntry(TrustEntry.Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "r-3");
+
+		Map<String, TrustEntry> prEntries = new HashMap<>();
+		Map<String, Double> vals = service.calcAdaptiveResourceTrust(Arrays.asList(art1, art2, art3), prEntries);
+
+		assertEquals(3, vals.size());
+		assertEquals(Double.valueOf(25), vals.get("r-1"));
+		assertEquals(null, vals.get("r-2"));
+		assertEquals(null, vals.get("r-3"));
+		assertTrue(prEntries.containsKey("p-2"));
+
+		// platform reputation entries are reused for following chunks of the cycle
+		vals = service.calcAdaptiveResourceTrust(Arrays.asList(art1, art2), prEntries);
+		assertEquals(Double.valueOf(25), vals.get("r-1"));
+
+		Mockito.verify(repository, Mockito.times(2)).findRTEntriesByResourceIds(Mockito.anyCollection());
+		Mockito.verify(repository, Mockito.times(1)).findPREntriesByPlatformIds(Mockito.anyCollection());
+		Mockito.verify(repository, Mockito.never()).getRTEntryByResourceId(Mockito.anyString());
+		Mockito.verify(repository, Mockito.never()).getPREntryByPlatformId(Mockito.anyString());
+	}
+
 	private List<FederationHistory> generateHistory() {
 		List<FederationHistory> fhList = new ArrayList<>();
 
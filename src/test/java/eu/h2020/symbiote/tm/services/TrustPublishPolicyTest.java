@@ -0,0 +1,164 @@
+package eu.h2020.symbiote.tm.services;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.test.context.junit4.SpringRunner;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry;
+import eu.h2020.symbiote.cloud.trust.model.TrustEntry.Type;
+
+@RunWith(SpringRunner.class)
+public class TrustPublishPolicyTest {
+	@Mock
+	private TrustAMQPService amqpService;
+
+	@InjectMocks
+	private final TrustPublishPolicy policy = new TrustPublishPolicy();
+
+	@Before
+	public void setup() throws Exception {
+		ReflectionTestUtils.setField(policy, "retention", 86400000L);
+	}
+
+	@Test
+	public void testAnyChange() {
+		TrustEntry te = new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-1");
+
+		te.setValue(44.0);
+		assertTrue(policy.shouldPublish(te, null));
+		assertFalse(policy.shouldPublish(te, 44.0));
+		te.setValue(44.01);
+		assertTrue(policy.shouldPublish(te, 44.0));
+		te.setValue(null);
+		assertTrue(policy.shouldPublish(te, 44.01));
+	}
+
+	@Test
+	public void testMinDelta() {
+		ReflectionTestUtils.setField(policy, "rtMinDelta", 1.0);
+		TrustEntry te = new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-1");
+
+		te.setValue(44.5);
+		assertFalse(policy.shouldPublish(te, 44.0));
+		te.setValue(45.0);
+		assertTrue(policy.shouldPublish(te, 44.5));
+
+		// changes are compared against the last published value
+		te.setValue(45.6);
+		assertFalse(policy.shouldPublish(te, 45.0));
+		te.setValue(44.1);
+		assertTrue(policy.shouldPublish(te, 45.6));
+
+		// other types are not affected
+		TrustEntry pr = new TrustEntry(Type.PLATFORM_REPUTATION, "p-1", null);
+		pr.setValue(44.5);
+		assertTrue(policy.shouldPublish(pr, 44.0));
+	}
+
+	@Test
+	public void testMinRelativeDelta() {
+		ReflectionTestUtils.setField(policy, "prMinRelativeDelta", 0.1);
+		TrustEntry te = new TrustEntry(Type.PLATFORM_REPUTATION, "p-1", null);
+
+		te.setValue(54.0);
+		assertFalse(policy.shouldPublish(te, 50.0));
+		te.setValue(55.0);
+		assertTrue(policy.shouldPublish(te, 54.0));
+	}
+
+	@Test
+	public void testMinInterval() {
+		ReflectionTestUtils.setField(policy, "artMinInterval", 60000L);
+		TrustEntry te = new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "r-1");
+
+		te.setValue(40.0);
+		assertTrue(policy.shouldPublish(te, null));
+		te.setValue(50.0);
+		assertFalse(policy.shouldPublish(te, 40.0));
+
+		policy.remove(te.getId());
+		assertTrue(policy.shouldPublish(te, 40.0));
+	}
+
+	@Test
+	public void testPublishPending() {
+		ReflectionTestUtils.setField(policy, "artMinInterval", 60000L);
+		TrustEntry te = new TrustEntry(Type.ADAPTIVE_RESOURCE_TRUST, "p-1", "r-1");
+
+		te.setValue(40.0);
+		assertTrue(policy.shouldPublish(te, null));
+		te.setValue(50.0);
+		assertFalse(policy.shouldPublish(te, 40.0));
+
+		// interval not elapsed yet
+		policy.publishPending();
+		Mockito.verify(amqpService, Mockito.never()).publishAdaptiveResourceTrustUpdate(Mockito.any(TrustEntry.class));
+
+		// latest suppressed change is published once the interval elapsed
+		ReflectionTestUtils.setField(policy, "artMinInterval", 0L);
+		policy.publishPending();
+		policy.publishPending();
+		Mockito.verify(amqpService, Mockito.times(1)).publishAdaptiveResourceTrustUpdate(te);
+		Mockito.verify(amqpService, Mockito.times(1)).flushBatches();
+		assertFalse(policy.shouldPublish(te, 40.0));
+	}
+
+	@Test
+	public void testPendingDroppedOnRevert() {
+		ReflectionTestUtils.setField(policy, "rtMinInterval", 60000L);
+		TrustEntry te = new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-1");
+
+		te.setValue(40.0);
+		assertTrue(policy.shouldPublish(te, null));
+		te.setValue(50.0);
+		assertFalse(policy.shouldPublish(te, 40.0));
+		te.setValue(40.0);
+		assertFalse(policy.shouldPublish(te, 50.0));
+
+		ReflectionTestUtils.setField(policy, "rtMinInterval", 0L);
+		policy.publishPending();
+		Mockito.verify(amqpService, Mockito.never()).publishResourceTrustUpdate(Mockito.any(TrustEntry.class));
+	}
+
+	@Test
+	public void testRetention() {
+		ReflectionTestUtils.setField(policy, "retention", 0L);
+		ReflectionTestUtils.setField(policy, "rtMinDelta", 1.0);
+		TrustEntry te = new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-1");
+
+		te.setValue(40.0);
+		assertTrue(policy.shouldPublish(te, null));
+		policy.publishPending();
+
+		// forgotten -> compared against the value before the update instead of the published 40.0
+		te.setValue(40.5);
+		assertTrue(policy.shouldPublish(te, 39.0));
+	}
+
+	@Test
+	public void testMetrics() {
+		ReflectionTestUtils.setField(policy, "rtMinDelta", 1.0);
+		TrustEntry te = new TrustEntry(Type.RESOURCE_TRUST, "p-1", "r-1");
+		te.setValue(44.5);
+		policy.shouldPublish(te, 44.0);
+		policy.shouldPublish(te, 44.0);
+
+		Map<String, Number> metrics = policy.metrics().stream().collect(Collectors.toMap(Metric::getName, Metric::getValue));
+		assertEquals(2L, metrics.get("trust.publish.suppressed.resource_trust"));
+		assertEquals(0L, metrics.get("trust.publish.suppressed.platform_reputation"));
+		assertEquals(0, metrics.get("trust.publish.pending"));
+	}
+}